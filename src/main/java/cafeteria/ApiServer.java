@@ -0,0 +1,529 @@
+package cafeteria;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.*;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Embedded HTTP/JSON front end over the same services the console and JavaFX apps use, so
+ * many kiosks and phones can share one backend. Each request runs on its own virtual thread
+ * when the JVM has them (Java 21+), otherwise on a fixed pool of platform threads.
+ * <pre>
+ * GET  /menu                                    current menu snapshot
+ * POST /register      studentId, name, password
+ * POST /login         studentId, password       -> session token
+ * POST /logout                                  (student)
+ * GET  /orders        [cursor], [limit]         order history page (student)
+ * POST /orders        items=D001:2,M001:1, [payment=cash|card]   place an order (student)
+ *                     header Idempotency-Key (or idempotencyKey): a retry returns the first order
+ * POST /orders/{id}/status   status=PREPARING|READY_FOR_PICKUP      (admin)
+ * GET  /kitchen                                 placed and preparing orders (admin)
+ * GET  /reports/daily | /reports/weekly | /reports?from=&amp;to=   (admin)
+ * GET  /leaderboard  [limit]                     students with the most points, and your rank if logged in
+ * GET  /metrics                                 latency report, plain text (admin)
+ * </pre>
+ * Parameters come from the query string or a form-encoded body. Students authenticate with
+ * {@code Authorization: Bearer <token>}, staff with {@code X-Admin-Key}.
+ */
+public class ApiServer {
+    private static final int MAX_BODY = 64 * 1024;
+    private static final int MAX_PAGE = 100;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final MenuManager menu;
+    private final StudentManager students;
+    private final OrderProcessor orders;
+    private final KitchenQueue kitchen;
+    private final ReportService reports;
+    private final Leaderboard leaderboard;
+    private final String adminKey;
+
+    /** Listens on the loopback interface only. */
+    public ApiServer(int port, MenuManager menu, StudentManager students, OrderProcessor orders,
+                     KitchenQueue kitchen, ReportService reports, Leaderboard leaderboard, String adminKey) throws IOException {
+        this(InetAddress.getLoopbackAddress(), port, menu, students, orders, kitchen, reports, leaderboard, adminKey);
+    }
+
+    public ApiServer(InetAddress bind, int port, MenuManager menu, StudentManager students, OrderProcessor orders,
+                     KitchenQueue kitchen, ReportService reports, Leaderboard leaderboard, String adminKey) throws IOException {
+        this.menu = menu;
+        this.students = students;
+        this.orders = orders;
+        this.kitchen = kitchen;
+        this.reports = reports;
+        this.leaderboard = leaderboard;
+        this.adminKey = adminKey;
+        this.server = HttpServer.create(new InetSocketAddress(bind, port), 256);
+        this.executor = requestExecutor();
+        server.setExecutor(executor);
+        server.createContext("/menu", ex -> handle(ex, this::menu));
+        server.createContext("/register", ex -> handle(ex, this::register));
+        server.createContext("/login", ex -> handle(ex, this::login));
+        server.createContext("/logout", ex -> handle(ex, this::logout));
+        server.createContext("/orders", ex -> handle(ex, this::orders));
+        server.createContext("/kitchen", ex -> handle(ex, this::kitchen));
+        server.createContext("/reports", ex -> handle(ex, this::reports));
+        server.createContext("/leaderboard", ex -> handle(ex, this::leaderboard));
+        server.createContext("/metrics", ex -> handle(ex, this::metrics));
+    }
+
+    public void start() { server.start(); }
+
+    public int getPort() { return server.getAddress().getPort(); }
+
+    /** Stops accepting connections, gives open exchanges up to {@code delaySeconds} to finish. */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+    }
+
+    // Java 21's per-task virtual thread executor when present; this code still builds and runs on 17
+    static ExecutorService requestExecutor() {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(Math.max(16, Runtime.getRuntime().availableProcessors() * 8), r -> {
+                Thread t = new Thread(r, "api-worker");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    // ---------- endpoints ----------
+
+    private String menu(Request req) {
+        req.require("GET");
+        MenuSnapshot snap = menu.snapshot();
+        StringBuilder sb = new StringBuilder(64 + snap.size() * 128);
+        sb.append("{\"version\":").append(snap.getVersion()).append(",\"items\":[");
+        boolean first = true;
+        for (MenuItem item : snap.getItems().values()) {
+            if (!first) sb.append(',');
+            first = false;
+            sb.append("{\"id\":"); str(sb, item.getId());
+            sb.append(",\"name\":"); str(sb, item.getName());
+            sb.append(",\"description\":"); str(sb, item.getDescription());
+            sb.append(",\"price\":").append(item.getPrice());
+            sb.append(",\"category\":"); str(sb, item.getCategory());
+            sb.append('}');
+        }
+        return sb.append("]}").toString();
+    }
+
+    private String register(Request req) {
+        req.require("POST");
+        Student s = students.register(req.param("name"), req.param("studentId"), req.param("password"));
+        req.status = 201;
+        StringBuilder sb = new StringBuilder();
+        studentJson(sb, s);
+        return sb.toString();
+    }
+
+    private String login(Request req) {
+        req.require("POST");
+        String id = req.param("studentId"), password = req.param("password");
+        String token = students.openSession(id, password).orElseThrow(() -> new ApiException(401, "Login failed."));
+        Student s = students.resolveSession(token).orElseThrow(() -> new ApiException(401, "Login failed."));
+        StringBuilder sb = new StringBuilder("{\"token\":");
+        str(sb, token);
+        sb.append(",\"student\":");
+        studentJson(sb, s);
+        return sb.append('}').toString();
+    }
+
+    private String logout(Request req) {
+        req.require("POST");
+        req.student();
+        students.closeSession(req.token());
+        return "{\"ok\":true}";
+    }
+
+    private String orders(Request req) {
+        String[] parts = req.path.split("/");
+        // /orders/{id}/status
+        if (parts.length == 4 && "status".equals(parts[3])) {
+            req.require("POST");
+            req.admin();
+            String id = parts[2];
+            OrderStatus status;
+            try {
+                status = OrderStatus.valueOf(req.param("status"));
+            } catch (IllegalArgumentException e) {
+                throw new ApiException(400, "Unknown status.");
+            }
+            if (!orders.updateStatus(id, status)) throw new ApiException(404, "No such order.");
+            return "{\"ok\":true}";
+        }
+        if (parts.length > 2) throw new ApiException(404, "Not found.");
+        Student s = req.student();
+        if ("GET".equals(req.method)) {
+            int limit = Math.min(MAX_PAGE, req.intParam("limit", Main.HISTORY_PAGE));
+            OrderPage page = orders.history(s.getStudentId(), req.optional("cursor"), Math.max(1, limit));
+            StringBuilder sb = new StringBuilder("{\"orders\":[");
+            boolean first = true;
+            for (Order o : page.getOrders()) {
+                if (!first) sb.append(',');
+                first = false;
+                orderJson(sb, o);
+            }
+            sb.append("],\"nextCursor\":");
+            if (page.getNextCursor() == null) sb.append("null");
+            else str(sb, page.getNextCursor());
+            return sb.append('}').toString();
+        }
+        req.require("POST");
+        Cart cart = new Cart(menu.snapshot());
+        for (String entry : req.param("items").split(",")) {
+            if (entry.isBlank()) continue;
+            int colon = entry.indexOf(':');
+            String itemId = (colon < 0 ? entry : entry.substring(0, colon)).trim();
+            int qty;
+            try {
+                qty = colon < 0 ? 1 : Integer.parseInt(entry.substring(colon + 1).trim());
+            } catch (NumberFormatException e) {
+                throw new ApiException(400, "Bad quantity for " + itemId + ".");
+            }
+            if (qty <= 0) throw new ApiException(400, "Bad quantity for " + itemId + ".");
+            if (!cart.add(itemId, qty)) throw new ApiException(400, "Unknown item " + itemId + ".");
+        }
+        if (cart.isEmpty()) throw new ApiException(400, "Cart empty.");
+        PaymentProcessor pay = "card".equalsIgnoreCase(req.optional("payment")) ? new CardPaymentProcessor() : new CashPaymentProcessor();
+        String key = req.ex.getRequestHeaders().getFirst("Idempotency-Key");
+        if (key == null) key = req.optional("idempotencyKey");
+        Order placed;
+        try {
+            placed = orders.placeOrder(s.getStudentId(), cart, pay, key);
+        } catch (IllegalStateException e) {
+            throw new ApiException(402, e.getMessage());
+        } catch (IllegalArgumentException e) {
+            throw new ApiException(400, e.getMessage());
+        }
+        req.status = 201;
+        StringBuilder sb = new StringBuilder();
+        orderJson(sb, placed);
+        return sb.toString();
+    }
+
+    private String kitchen(Request req) {
+        req.require("GET");
+        req.admin();
+        StringBuilder sb = new StringBuilder("{\"placed\":[");
+        appendOrders(sb, kitchen.placed());
+        sb.append("],\"preparing\":[");
+        appendOrders(sb, kitchen.preparing());
+        return sb.append("]}").toString();
+    }
+
+    private String reports(Request req) {
+        req.require("GET");
+        req.admin();
+        LocalDate today = LocalDate.now();
+        LocalDate from, to;
+        if (req.path.equals("/reports/daily")) {
+            from = to = today;
+        } else if (req.path.equals("/reports/weekly")) {
+            from = today.minusDays(6);
+            to = today;
+        } else if (req.path.equals("/reports") || req.path.equals("/reports/")) {
+            try {
+                from = LocalDate.parse(req.param("from"));
+                String t = req.optional("to");
+                to = t == null ? today : LocalDate.parse(t);
+            } catch (DateTimeParseException e) {
+                throw new ApiException(400, "Dates must be yyyy-mm-dd.");
+            }
+        } else {
+            throw new ApiException(404, "Not found.");
+        }
+        ReportService.DayTotals t = reports.summary(from, to);
+        return "{\"from\":\"" + from + "\",\"to\":\"" + to + "\",\"orders\":" + t.getOrders()
+                + ",\"sales\":" + t.getSales() + ",\"discounts\":" + t.getDiscounts()
+                + ",\"points\":" + t.getPoints() + ",\"redemptions\":" + t.getRedemptions() + "}";
+    }
+
+    private String leaderboard(Request req) {
+        req.require("GET");
+        int limit = Math.max(1, Math.min(MAX_PAGE, req.intParam("limit", 10)));
+        StringBuilder sb = new StringBuilder("{\"top\":[");
+        boolean first = true;
+        for (Leaderboard.Entry e : leaderboard.top(limit)) {
+            if (!first) sb.append(',');
+            first = false;
+            sb.append("{\"studentId\":"); str(sb, e.getStudentId());
+            sb.append(",\"name\":"); str(sb, e.getName());
+            sb.append(",\"points\":").append(e.getPoints()).append('}');
+        }
+        sb.append(']');
+        // Kiosks ask anonymously; a logged-in student also gets their own place
+        Optional<Student> me = req.token() == null ? Optional.empty() : students.resolveSession(req.token());
+        if (me.isPresent()) {
+            OptionalInt rank = leaderboard.rankOf(me.get().getStudentId());
+            sb.append(",\"you\":{\"points\":").append(me.get().getPoints())
+                    .append(",\"rank\":").append(rank.isPresent() ? String.valueOf(rank.getAsInt()) : "null").append('}');
+        }
+        return sb.append(",\"ranked\":").append(leaderboard.size()).append('}').toString();
+    }
+
+    private String metrics(Request req) {
+        req.require("GET");
+        req.admin();
+        req.contentType = "text/plain; charset=utf-8";
+        return Metrics.report();
+    }
+
+    // ---------- plumbing ----------
+
+    private interface Endpoint {
+        String handle(Request req) throws IOException;
+    }
+
+    private static final class ApiException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        final int status;
+        ApiException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    private final class Request {
+        final HttpExchange ex;
+        final String method;
+        final String path;
+        final Map<String, String> params = new HashMap<>();
+        int status = 200;
+        String contentType = "application/json; charset=utf-8";
+
+        Request(HttpExchange ex) throws IOException {
+            this.ex = ex;
+            this.method = ex.getRequestMethod();
+            this.path = ex.getRequestURI().getPath();
+            parseForm(ex.getRequestURI().getRawQuery(), params);
+            if ("POST".equals(method)) parseForm(readBody(ex), params);
+        }
+
+        void require(String m) {
+            if (!m.equals(method)) throw new ApiException(405, "Use " + m + ".");
+        }
+
+        String param(String name) {
+            String v = params.get(name);
+            if (v == null || v.isEmpty()) throw new ApiException(400, "Missing " + name + ".");
+            return v;
+        }
+
+        String optional(String name) {
+            String v = params.get(name);
+            return v == null || v.isEmpty() ? null : v;
+        }
+
+        int intParam(String name, int dflt) {
+            String v = optional(name);
+            if (v == null) return dflt;
+            try {
+                return Integer.parseInt(v);
+            } catch (NumberFormatException e) {
+                throw new ApiException(400, "Bad " + name + ".");
+            }
+        }
+
+        String token() {
+            String h = ex.getRequestHeaders().getFirst("Authorization");
+            return h != null && h.startsWith("Bearer ") ? h.substring(7).trim() : null;
+        }
+
+        Student student() {
+            return students.resolveSession(token()).orElseThrow(() -> new ApiException(401, "Login required."));
+        }
+
+        void admin() {
+            String key = ex.getRequestHeaders().getFirst("X-Admin-Key");
+            if (!HashUtil.secretEquals(adminKey, key)) throw new ApiException(403, "Denied.");
+        }
+    }
+
+    private void handle(HttpExchange ex, Endpoint endpoint) throws IOException {
+        String body;
+        int status;
+        String contentType = "application/json; charset=utf-8";
+        try {
+            Request req;
+            try {
+                req = new Request(ex);
+            } catch (IOException e) {
+                throw new ApiException(400, "Could not read the request.");
+            }
+            body = endpoint.handle(req);
+            status = req.status;
+            contentType = req.contentType;
+        } catch (ApiException e) {
+            status = e.status;
+            body = error(e.getMessage());
+        } catch (IllegalArgumentException e) {
+            status = 400;
+            body = error(e.getMessage());
+        } catch (RuntimeException | IOException e) {
+            e.printStackTrace();
+            status = 500;
+            body = error("Internal error.");
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", contentType);
+        ex.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String readBody(HttpExchange ex) throws IOException {
+        try (InputStream in = ex.getRequestBody()) {
+            byte[] bytes = in.readNBytes(MAX_BODY + 1);
+            if (bytes.length > MAX_BODY) throw new ApiException(413, "Request too large.");
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void parseForm(String raw, Map<String, String> into) {
+        if (raw == null || raw.isEmpty()) return;
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            String k = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            String v = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            into.put(k, v);
+        }
+    }
+
+    private static String error(String message) {
+        StringBuilder sb = new StringBuilder("{\"error\":");
+        str(sb, message == null ? "" : message);
+        return sb.append('}').toString();
+    }
+
+    private static void studentJson(StringBuilder sb, Student s) {
+        sb.append("{\"studentId\":"); str(sb, s.getStudentId());
+        sb.append(",\"name\":"); str(sb, s.getName());
+        sb.append(",\"points\":").append(s.getPoints());
+        sb.append(",\"wallet\":").append(s.getDiscountWallet());
+        sb.append('}');
+    }
+
+    private static void appendOrders(StringBuilder sb, List<Order> list) {
+        for (int i = 0; i < list.size(); i++) {
+            if (i > 0) sb.append(',');
+            orderJson(sb, list.get(i));
+        }
+    }
+
+    static void orderJson(StringBuilder sb, Order o) {
+        sb.append("{\"orderId\":"); str(sb, o.getOrderId());
+        sb.append(",\"studentId\":"); str(sb, o.getStudentId());
+        sb.append(",\"status\":\"").append(o.getStatus().name());
+        sb.append("\",\"total\":").append(o.getTotal());
+        sb.append(",\"discount\":").append(o.getDiscountApplied());
+        sb.append(",\"points\":").append(o.getPointsEarned());
+        if (o.getIdempotencyKey() != null) { sb.append(",\"idempotencyKey\":"); str(sb, o.getIdempotencyKey()); }
+        sb.append(",\"createdAt\":\"").append(o.getCreatedAt()).append("\",\"lines\":[");
+        boolean first = true;
+        for (OrderLine l : o.getLines()) {
+            if (!first) sb.append(',');
+            first = false;
+            sb.append("{\"itemId\":"); str(sb, l.getItem().getId());
+            sb.append(",\"name\":"); str(sb, l.getItem().getName());
+            sb.append(",\"quantity\":").append(l.getQuantity());
+            sb.append(",\"unitPrice\":").append(l.getUnitPrice());
+            sb.append('}');
+        }
+        sb.append("]}");
+    }
+
+    static void str(StringBuilder sb, String s) {
+        try {
+            JsonUtil.appendString(sb, s == null ? "" : s);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // StringBuilder never throws
+        }
+    }
+
+    /** CAFETERIA_ADMIN_KEY; servers refuse to start without one rather than fall back to a known default. */
+    static String requireAdminKey() {
+        String key = System.getenv("CAFETERIA_ADMIN_KEY");
+        if (key == null || key.isBlank()) throw new IllegalStateException("Set CAFETERIA_ADMIN_KEY; there is no default admin key.");
+        return key;
+    }
+
+    /**
+     * {@code java -cp out cafeteria.ApiServer [port] [bindAddress]}; listens on loopback unless given
+     * an address. The admin key comes from CAFETERIA_ADMIN_KEY, which must be set.
+     * Orders live in order.txt, in CAFETERIA_ORDER_SHARDS local shard files, or on the
+     * {@link ShardServer}s listed in CAFETERIA_SHARD_SERVERS (host:port,host:port,...).
+     * With CAFETERIA_REPLICATION_PORT set, a single order file is also streamed to
+     * {@link ReplicaFollower}s on that loopback port; they authenticate with the admin key.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        InetAddress bind = args.length > 1 ? InetAddress.getByName(args[1]) : InetAddress.getLoopbackAddress();
+        String key = requireAdminKey();
+        IndexedStudentRepository studentRepo = new IndexedStudentRepository();
+        InMemoryMenuProvider menuProvider = new InMemoryMenuProvider();
+        OrderRepository orderRepo = openOrders(key);
+        orderRepo.archiveOlderThan(Main.ARCHIVE_AFTER);
+        LoyaltyProgram loyalty = new LoyaltyProgram(new BasicPointsCalculator(10.0), studentRepo);
+        AsyncNotificationDispatcher notifications = new AsyncNotificationDispatcher(AsyncNotificationDispatcher.console());
+        OrderProcessor orders = new OrderProcessor(menuProvider, orderRepo, loyalty, notifications);
+        ReportService reports = new ReportService(orderRepo);
+        orders.addListener(reports);
+        loyalty.addListener(reports);
+        SalesCube sales = new SalesCube();
+        orders.addListener(sales);
+        KitchenQueue kitchen = new KitchenQueue(orders);
+        Leaderboard leaderboard = new Leaderboard(loyalty, Leaderboard.FILE);
+        ReplicationLog replication = openReplication(orderRepo, studentRepo, key);
+
+        ApiServer api = new ApiServer(bind, port, new MenuManager(menuProvider), new StudentManager(studentRepo), orders, kitchen, reports, leaderboard, key);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            api.stop(1);
+            if (replication != null) replication.close();
+            notifications.close();
+            studentRepo.close();
+            leaderboard.close();
+            orderRepo.close();
+            sales.close();
+        }, "api-shutdown"));
+        api.start();
+        System.out.println("Cafeteria API listening on " + bind.getHostAddress() + ":" + api.getPort());
+    }
+
+    private static ReplicationLog openReplication(OrderRepository orderRepo, StudentRepository studentRepo, String key) throws IOException {
+        String port = System.getenv("CAFETERIA_REPLICATION_PORT");
+        if (port == null || port.isBlank()) return null;
+        if (!(orderRepo instanceof InMemoryOrderRepository)) {
+            System.err.println("Replication needs a single order file; not started with shards.");
+            return null;
+        }
+        ReplicationLog log = new ReplicationLog(Integer.parseInt(port.trim()), (InMemoryOrderRepository) orderRepo, studentRepo, key);
+        System.out.println("Streaming changes to local replicas on port " + log.getPort());
+        return log;
+    }
+
+    private static OrderRepository openOrders(String key) {
+        String servers = System.getenv("CAFETERIA_SHARD_SERVERS");
+        if (servers != null && !servers.isBlank()) return ShardedOrderRepository.remote(Arrays.asList(servers.split(",")), key);
+        String shards = System.getenv("CAFETERIA_ORDER_SHARDS");
+        if (shards != null && !shards.isBlank()) return ShardedOrderRepository.local("order.txt", Integer.parseInt(shards.trim()));
+        return new InMemoryOrderRepository("order.txt");
+    }
+}
@@ -0,0 +1,150 @@
+package cafeteria;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Delivers student notifications off the caller's thread. {@link #notifyStudent} only enqueues,
+ * so a slow channel can't hold up status changes. Workers hand notices to the sink in batches.
+ * A notice that is still waiting absorbs identical ones for the same student, and when the queue
+ * is full new notices are dropped and counted instead of blocking the caller.
+ */
+public class AsyncNotificationDispatcher implements INotificationService, AutoCloseable {
+    /** Where notices end up (console, SMS gateway, ...). Called from worker threads only. */
+    public interface Sink {
+        void deliver(List<Notice> batch) throws Exception;
+    }
+
+    public static final class Notice {
+        private final String studentId;
+        private final String message;
+        private int repeats = 1;
+
+        Notice(String studentId, String message) { this.studentId = studentId; this.message = message; }
+
+        public String getStudentId() { return studentId; }
+        public String getMessage() { return message; }
+        /** How many identical notices were merged into this one. */
+        public int getRepeats() { return repeats; }
+    }
+
+    private final Sink sink;
+    private final int capacity;
+    private final int maxBatch;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    // keyed by studentId + '\n' + message; insertion order keeps delivery roughly FIFO
+    private final LinkedHashMap<String, Notice> pending = new LinkedHashMap<>();
+    private final List<Thread> workers = new ArrayList<>();
+    private boolean closed;
+
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    public AsyncNotificationDispatcher(Sink sink) { this(sink, 10_000, 2, 64); }
+
+    public AsyncNotificationDispatcher(Sink sink, int capacity, int workerCount, int maxBatch) {
+        this.sink = sink;
+        this.capacity = capacity;
+        this.maxBatch = maxBatch;
+        for (int i = 0; i < workerCount; i++) {
+            Thread t = new Thread(this::work, "notifier-" + i);
+            t.setDaemon(true);
+            t.start();
+            workers.add(t);
+        }
+    }
+
+    /** Prints each notice the way {@link NotificationService} does. */
+    public static Sink console() {
+        return batch -> {
+            for (Notice n : batch) System.out.println(">> Notification to " + n.getStudentId() + ": " + n.getMessage());
+        };
+    }
+
+    @Override
+    public void notifyStudent(String studentId, String message) {
+        String key = studentId + '\n' + message;
+        lock.lock();
+        try {
+            if (closed) { dropped.increment(); return; }
+            Notice existing = pending.get(key);
+            if (existing != null) {
+                existing.repeats++;
+                coalesced.increment();
+                return;
+            }
+            if (pending.size() >= capacity) { dropped.increment(); return; }
+            pending.put(key, new Notice(studentId, message));
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getDelivered() { return delivered.sum(); }
+    public long getCoalesced() { return coalesced.sum(); }
+    public long getDropped() { return dropped.sum(); }
+    public long getFailed() { return failed.sum(); }
+
+    public int getPending() {
+        lock.lock();
+        try {
+            return pending.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Stops accepting notices, lets the workers deliver what is queued and waits up to 5 seconds for them. */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        for (Thread t : workers) {
+            try {
+                t.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void work() {
+        while (true) {
+            List<Notice> batch;
+            lock.lock();
+            try {
+                while (pending.isEmpty() && !closed) notEmpty.awaitUninterruptibly();
+                if (pending.isEmpty()) return; // closed and drained
+                batch = new ArrayList<>(Math.min(maxBatch, pending.size()));
+                Iterator<Notice> it = pending.values().iterator();
+                while (it.hasNext() && batch.size() < maxBatch) {
+                    batch.add(it.next());
+                    it.remove();
+                }
+            } finally {
+                lock.unlock();
+            }
+            try {
+                sink.deliver(batch);
+                delivered.add(batch.size());
+            } catch (Exception e) {
+                failed.add(batch.size());
+                e.printStackTrace();
+            }
+        }
+    }
+}
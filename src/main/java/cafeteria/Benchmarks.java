@@ -0,0 +1,352 @@
+package cafeteria;
+
+import java.io.*;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Micro-benchmarks for the order, loyalty, login, report and storage hot paths.
+ * Every benchmark works on files in a temporary directory, so the real data files are untouched.
+ *
+ * <pre>java -cp out cafeteria.Benchmarks [orderCount ...]</pre>
+ * Order counts default to 10000 100000 1000000.
+ */
+public class Benchmarks {
+    private static final long WARMUP_MS = 1000;
+    private static final long MEASURE_MS = 2000;
+
+    // Results are written here so the JIT can't discard the benchmarked work
+    private static volatile Object sink;
+
+    interface Op {
+        Object run(int i) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = args.length == 0
+                ? new int[]{10_000, 100_000, 1_000_000}
+                : Arrays.stream(args).mapToInt(Integer::parseInt).toArray();
+        Path dir = Files.createTempDirectory("cafeteria-bench");
+        try {
+            benchPlaceOrder(dir, "basic", new BasicPointsCalculator(10.0));
+            benchPlaceOrder(dir, "tiered", new TieredPointsCalculator());
+            benchStatusUpdates(dir);
+            for (int shards : new int[]{1, 2, 4}) benchShardedIngest(dir, shards);
+            for (int n : sizes) benchOrderQueries(dir, n);
+            benchStudentRepository(dir, 10_000);
+            benchLogin(dir);
+            benchLeaderboard(dir, 10_000);
+            for (int n : sizes) benchReports(dir, n);
+            benchSalesCube(dir, 300_000);
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    private static void benchPlaceOrder(Path dir, String label, PointsCalculator calc) {
+        Path run = subdir(dir, "place-" + label);
+        FileStudentRepository students = new FileStudentRepository(run.resolve("students.txt").toString(), FileStudentRepository.Durability.GROUP);
+        InMemoryOrderRepository orderRepo = new InMemoryOrderRepository(run.resolve("order.txt").toString());
+        InMemoryMenuProvider menu = new InMemoryMenuProvider(run.resolve("menu.txt").toString());
+        LoyaltyProgram loyalty = new LoyaltyProgram(calc, students);
+        OrderProcessor orders = new OrderProcessor(menu, orderRepo, loyalty, new NotificationService());
+        StudentManager studentMgr = new StudentManager(students);
+        for (int s = 0; s < 1000; s++) studentMgr.register("Student " + s, "S" + s, "pw" + s);
+        MenuItem coffee = new MenuItem("D001", "Iced Coffee", "Cold brew", 35.0, "Drink");
+        MenuItem shawarma = new MenuItem("M001", "Chicken Shawarma", "Grilled chicken wrap", 75.0, "Main Course");
+        List<OrderLine> cart = List.of(new OrderLine(coffee, 2), new OrderLine(shawarma, 1));
+        PaymentProcessor cash = new CashPaymentProcessor();
+
+        bench("placeOrder (" + label + " points)", i -> orders.placeOrder("S" + (i % 1000), cart, cash));
+
+        if (label.equals("basic")) {
+            menu.edit(b -> b.put(coffee).put(shawarma));
+            Cart priced = new Cart(menu.snapshot());
+            int coffeeIdx = priced.getMenu().indexOf("D001");
+            bench("cart add+remove", i -> {
+                priced.add(coffeeIdx, 1);
+                priced.remove(coffeeIdx, 1);
+                return priced.getTotalMinor();
+            });
+        }
+
+        orderRepo.close();
+        students.close();
+    }
+
+    // READY updates with a sink that takes 5 ms per batch, like a remote SMS gateway
+    private static void benchStatusUpdates(Path dir) {
+        Path run = subdir(dir, "status");
+        FileStudentRepository students = new FileStudentRepository(run.resolve("students.txt").toString(), FileStudentRepository.Durability.GROUP);
+        InMemoryOrderRepository orderRepo = new InMemoryOrderRepository(run.resolve("order.txt").toString());
+        LoyaltyProgram loyalty = new LoyaltyProgram(new BasicPointsCalculator(10.0), students);
+        AsyncNotificationDispatcher notifier = new AsyncNotificationDispatcher(batch -> Thread.sleep(5));
+        OrderProcessor orders = new OrderProcessor(new InMemoryMenuProvider(run.resolve("menu.txt").toString()), orderRepo, loyalty, notifier);
+        new StudentManager(students).register("Student", "S0", "pw");
+        List<OrderLine> cart = List.of(new OrderLine(new MenuItem("D001", "Iced Coffee", "Cold brew", 35.0, "Drink"), 1));
+        String[] ids = new String[1000];
+        for (int i = 0; i < ids.length; i++) ids[i] = orders.placeOrder("S0", cart, new CashPaymentProcessor()).getOrderId();
+
+        bench("updateStatus (slow async sink)", i -> {
+            String id = ids[i % ids.length];
+            orders.updateStatus(id, i % 2 == 0 ? OrderStatus.READY_FOR_PICKUP : OrderStatus.PREPARING);
+            return id;
+        });
+        System.out.printf("%-40s delivered=%d coalesced=%d dropped=%d%n", "  notifications",
+                notifier.getDelivered(), notifier.getCoalesced(), notifier.getDropped());
+
+        notifier.close();
+        orderRepo.close();
+        students.close();
+    }
+
+    // Eight threads saving orders for different students at once; each shard has its own lock and journal
+    private static void benchShardedIngest(Path dir, int shards) throws InterruptedException {
+        Path run = subdir(dir, "ingest-" + shards);
+        OrderRepository repo = shards == 1
+                ? new InMemoryOrderRepository(run.resolve("order.txt").toString())
+                : ShardedOrderRepository.local(run.resolve("order.txt").toString(), shards);
+        int threads = 8, perThread = 50_000;
+        Thread[] workers = new Thread[threads];
+        long t0 = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            workers[t] = new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    Order o = new Order("S" + (id * perThread + i) % 5000, Collections.emptyList());
+                    o.setTotal(35.0);
+                    repo.save(o);
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread w : workers) w.join();
+        report("save x" + threads + " threads (" + shards + " shard" + (shards == 1 ? ")" : "s)"), (long) threads * perThread, System.nanoTime() - t0);
+        repo.close();
+    }
+
+    private static void benchOrderQueries(Path dir, int n) throws IOException {
+        Path journal = subdir(dir, "orders-" + n).resolve("order.txt");
+        int students = Math.max(1, n / 20);
+        writeOrderJournal(journal, n, students);
+
+        long t0 = System.nanoTime();
+        InMemoryOrderRepository repo = new InMemoryOrderRepository(journal.toString(), true, Integer.MAX_VALUE);
+        reportOnce("load " + n + " orders", System.nanoTime() - t0);
+
+        bench("byStudent @" + n, i -> repo.byStudent("S" + (i % students)));
+        bench("byStudent first page(20) @" + n, i -> repo.byStudent("S" + (i % students), null, 20));
+        bench("byStatus(PLACED) @" + n, i -> repo.byStatus(OrderStatus.PLACED));
+        bench("byStatus(PREPARING) @" + n, i -> repo.byStatus(OrderStatus.PREPARING));
+        repo.close();
+    }
+
+    private static void benchStudentRepository(Path dir, int n) {
+        Path run = subdir(dir, "students");
+        String file = run.resolve("students.txt").toString();
+        for (FileStudentRepository.Durability d : FileStudentRepository.Durability.values()) {
+            FileStudentRepository repo = new FileStudentRepository(file + "." + d, d);
+            for (int s = 0; s < n; s++) repo.save(new Student("Student " + s, "S" + s, "hash" + s));
+            repo.flush();
+            bench("student points update (" + d + ") @" + n, i -> {
+                Student s = repo.findById("S" + (i % n)).get();
+                s.addPoints(1);
+                return s;
+            });
+            repo.close();
+        }
+        long t0 = System.nanoTime();
+        FileStudentRepository loaded = new FileStudentRepository(file + "." + FileStudentRepository.Durability.GROUP,
+                FileStudentRepository.Durability.GROUP);
+        reportOnce("load " + n + " students", System.nanoTime() - t0);
+        sink = loaded;
+        loaded.close();
+
+        // Disk-resident store with a cache for a tenth of the students
+        String dat = run.resolve("students.dat").toString();
+        IndexedStudentRepository indexed = new IndexedStudentRepository(dat, null, FileStudentRepository.Durability.GROUP, n / 10);
+        for (int s = 0; s < n; s++) indexed.save(new Student("Student " + s, "S" + s, "hash" + s));
+        indexed.close();
+        t0 = System.nanoTime();
+        IndexedStudentRepository reopened = new IndexedStudentRepository(dat, null, FileStudentRepository.Durability.GROUP, n / 10);
+        reportOnce("open indexed store @" + n, System.nanoTime() - t0);
+        bench("indexed findById (cached) @" + n, i -> reopened.findById("S" + (i % (n / 10))));
+        bench("indexed findById (all students) @" + n, i -> reopened.findById("S" + ((i * 7919) % n)));
+        reopened.close();
+    }
+
+    private static void benchLogin(Path dir) {
+        Path run = subdir(dir, "login");
+        FileStudentRepository repo = new FileStudentRepository(run.resolve("students.txt").toString(), FileStudentRepository.Durability.GROUP);
+        StudentManager studentMgr = new StudentManager(repo);
+        for (int s = 0; s < 1000; s++) studentMgr.register("Student " + s, "S" + s, "pw" + s);
+        bench("login (valid)", i -> studentMgr.login("S" + (i % 1000), "pw" + (i % 1000)));
+        bench("login (wrong password)", i -> studentMgr.login("S" + (i % 1000), "nope"));
+        String[] tokens = new String[1000];
+        for (int s = 0; s < 1000; s++) tokens[s] = studentMgr.openSession("S" + s, "pw" + s).orElseThrow();
+        bench("resolveSession", i -> studentMgr.resolveSession(tokens[i % 1000]));
+        repo.close();
+    }
+
+    private static void benchLeaderboard(Path dir, int n) {
+        Path run = subdir(dir, "leaderboard");
+        FileStudentRepository repo = new FileStudentRepository(run.resolve("students.txt").toString(), FileStudentRepository.Durability.GROUP);
+        LoyaltyProgram loyalty = new LoyaltyProgram(new BasicPointsCalculator(10.0), repo);
+        Random rnd = new Random(42);
+        for (int s = 0; s < n; s++) {
+            Student st = new Student("Student " + s, "S" + s, "hash" + s);
+            st.addPoints(rnd.nextInt(5000));
+            repo.save(st);
+        }
+        Leaderboard board = new Leaderboard(loyalty);
+        bench("leaderboard by sorting all @" + n, i -> repo.all().stream()
+                .sorted(Comparator.comparingInt(Student::getPoints).reversed()).limit(10).collect(Collectors.toList()));
+        bench("leaderboard top 10 @" + n, i -> board.top(10));
+        bench("leaderboard rankOf @" + n, i -> board.rankOf("S" + (i % n)));
+        bench("awardPoints with leaderboard @" + n, i -> loyalty.awardPoints("S" + (i % n), 50));
+        repo.close();
+
+        // Starting a board over the disk-resident store: a walk of every student, or the saved board
+        IndexedStudentRepository indexed = new IndexedStudentRepository(run.resolve("students.dat").toString(), null,
+                FileStudentRepository.Durability.GROUP, n / 10);
+        for (int s = 0; s < n; s++) {
+            Student st = new Student("Student " + s, "S" + s, "hash" + s);
+            st.addPoints(rnd.nextInt(5000));
+            indexed.save(st);
+        }
+        indexed.flush();
+        LoyaltyProgram indexedLoyalty = new LoyaltyProgram(new BasicPointsCalculator(10.0), indexed);
+        String saved = run.resolve(Leaderboard.FILE).toString();
+        long t0 = System.nanoTime();
+        Leaderboard walked = new Leaderboard(indexedLoyalty, saved);
+        reportOnce("leaderboard start, walking indexed store @" + n, System.nanoTime() - t0);
+        walked.close();
+        t0 = System.nanoTime();
+        Leaderboard reloaded = new Leaderboard(indexedLoyalty, saved);
+        reportOnce("leaderboard start, from saved board @" + n, System.nanoTime() - t0);
+        sink = reloaded;
+        indexed.close();
+    }
+
+    private static void benchReports(Path dir, int n) throws IOException {
+        Path journal = subdir(dir, "reports-" + n).resolve("order.txt");
+        writeOrderJournal(journal, n, Math.max(1, n / 20));
+        InMemoryOrderRepository repo = new InMemoryOrderRepository(journal.toString(), true, Integer.MAX_VALUE);
+
+        long t0 = System.nanoTime();
+        ReportService reports = new ReportService(repo);
+        reportOnce("build report aggregates @" + n, System.nanoTime() - t0);
+
+        bench("dailySummary @" + n, i -> reports.dailySummary());
+        bench("weeklySummary @" + n, i -> reports.weeklySummary());
+        repo.close();
+    }
+
+    // n orders of 1-3 lines over the last three years, queried by the cube and by walking the orders
+    private static void benchSalesCube(Path dir, int n) {
+        MenuItem[] items = {
+                new MenuItem("M001", "Chicken Shawarma", "", 75.0, "Main Course"),
+                new MenuItem("M002", "Koshari Bowl", "", 55.0, "Main Course"),
+                new MenuItem("D001", "Iced Coffee", "", 35.0, "Drink"),
+                new MenuItem("D003", "Tea", "", 12.5, "Drink"),
+                new MenuItem("S001", "Chocolate Muffin", "", 20.0, "Snack")};
+        Random rnd = new Random(42);
+        LocalDateTime now = LocalDateTime.now();
+        List<Order> orders = new ArrayList<>(n);
+        SalesCube cube = new SalesCube(subdir(dir, "sales").resolve("sales.cube").toString());
+        long t0 = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            List<OrderLine> lines = new ArrayList<>();
+            for (int l = 1 + rnd.nextInt(3); l > 0; l--) lines.add(new OrderLine(items[rnd.nextInt(items.length)], 1 + rnd.nextInt(2)));
+            Order o = new Order(UUID.randomUUID().toString(), "S" + rnd.nextInt(1000), lines,
+                    now.minusMinutes((long) (n - i) * 3 * 365 * 24 * 60 / n));
+            orders.add(o);
+            cube.orderPlaced(o);
+        }
+        reportOnce("sales cube ingest " + cube.size() + " rows", System.nanoTime() - t0);
+        LocalDate today = now.toLocalDate();
+        bench("revenue per item, walking orders, 1 year @" + n, i -> {
+            Map<String, Long> rev = new HashMap<>();
+            LocalDate from = today.minusYears(1);
+            for (Order o : orders) {
+                if (o.getCreatedAt().toLocalDate().isBefore(from)) continue;
+                for (OrderLine l : o.getLines()) rev.merge(l.getItem().getId(), l.lineTotalMinor(), Long::sum);
+            }
+            return rev;
+        });
+        bench("revenue per item, cube, 1 year @" + n, i -> cube.revenueByItem(today.minusYears(1), today));
+        bench("revenue per item, cube, 1 week @" + n, i -> cube.revenueByItem(today.minusDays(6), today));
+        bench("top items per hour, cube, 1 year @" + n, i -> cube.topItemsPerHour(today.minusYears(1), today, 3));
+        bench("category mix per day, cube, 1 year @" + n, i -> cube.categoryMix(today.minusYears(1), today));
+        cube.close();
+    }
+
+    // Orders spread over the last 90 days; a few are still open, the rest were picked up
+    private static void writeOrderJournal(Path journal, int n, int students) throws IOException {
+        Random rnd = new Random(42);
+        LocalDateTime now = LocalDateTime.now();
+        try (PrintWriter pw = new PrintWriter(Files.newBufferedWriter(journal))) {
+            for (int i = 0; i < n; i++) {
+                int r = rnd.nextInt(100);
+                OrderStatus st = r == 0 ? OrderStatus.PLACED : r == 1 ? OrderStatus.PREPARING : OrderStatus.READY_FOR_PICKUP;
+                Order o = new Order(UUID.randomUUID().toString(), "S" + rnd.nextInt(students), Collections.emptyList(),
+                        now.minusMinutes(rnd.nextInt(90 * 24 * 60)));
+                o.setStatus(st);
+                o.setTotal(20 + rnd.nextInt(200));
+                o.setPointsEarned((int) (o.getTotal() / 10));
+                pw.println(OrderRecords.save(o));
+            }
+        }
+    }
+
+    private static void bench(String name, Op op) {
+        try {
+            run(op, WARMUP_MS);
+            long start = System.nanoTime();
+            long ops = run(op, MEASURE_MS);
+            report(name, ops, System.nanoTime() - start);
+        } catch (Exception e) {
+            System.out.println(name + ": FAILED " + e);
+        }
+    }
+
+    // Runs op in batches until the time budget is spent and returns how many calls were made
+    private static long run(Op op, long millis) throws Exception {
+        long deadline = System.nanoTime() + millis * 1_000_000L;
+        long ops = 0;
+        int batch = 1;
+        while (System.nanoTime() < deadline) {
+            for (int i = 0; i < batch; i++) sink = op.run((int) (ops + i));
+            ops += batch;
+            if (batch < 1024) batch <<= 1;
+        }
+        return ops;
+    }
+
+    private static void report(String name, long ops, long nanos) {
+        double avg = (double) nanos / ops;
+        double perSec = ops * 1e9 / nanos;
+        System.out.printf("%-40s %12.0f ops/s %14.1f ns/op%n", name, perSec, avg);
+    }
+
+    private static void reportOnce(String name, long nanos) {
+        System.out.printf("%-40s %12.1f ms%n", name, nanos / 1e6);
+    }
+
+    private static Path subdir(Path dir, String name) {
+        try {
+            return Files.createDirectories(dir.resolve(name));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (var paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
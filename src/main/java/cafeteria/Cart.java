@@ -0,0 +1,108 @@
+package cafeteria;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A student's cart, priced against one {@link MenuSnapshot}. Quantities are kept in an array
+ * indexed by the snapshot's dense item index and the total is kept up to date in piastres, so
+ * adding, removing and reading the total don't allocate. Not thread-safe; one cart per session.
+ */
+public class Cart {
+    /** Receives each line of the cart in menu order. */
+    public interface LineVisitor {
+        void line(MenuItem item, int quantity, long lineTotalMinor);
+    }
+
+    private MenuSnapshot menu;
+    private int[] quantities;
+    private long totalMinor;
+    private int lineCount;
+
+    public Cart(MenuSnapshot menu) {
+        this.menu = menu;
+        this.quantities = new int[menu.size()];
+    }
+
+    public MenuSnapshot getMenu() { return menu; }
+
+    /** Adds {@code qty} of the item; false if it isn't on this cart's menu. */
+    public boolean add(String itemId, int qty) {
+        int i = menu.indexOf(itemId);
+        if (i < 0) return false;
+        add(i, qty);
+        return true;
+    }
+
+    public void add(int index, int qty) {
+        if (qty <= 0) throw new IllegalArgumentException("Quantity must be positive.");
+        if (quantities[index] == 0) lineCount++;
+        quantities[index] += qty;
+        totalMinor += menu.priceMinor(index) * qty;
+    }
+
+    /** Removes up to {@code qty} of the item. */
+    public void remove(String itemId, int qty) {
+        int i = menu.indexOf(itemId);
+        if (i >= 0) remove(i, qty);
+    }
+
+    public void remove(int index, int qty) {
+        int n = Math.min(qty, quantities[index]);
+        if (n <= 0) return;
+        quantities[index] -= n;
+        if (quantities[index] == 0) lineCount--;
+        totalMinor -= menu.priceMinor(index) * n;
+    }
+
+    public int quantity(String itemId) {
+        int i = menu.indexOf(itemId);
+        return i < 0 ? 0 : quantities[i];
+    }
+
+    public void clear() {
+        java.util.Arrays.fill(quantities, 0);
+        totalMinor = 0;
+        lineCount = 0;
+    }
+
+    public boolean isEmpty() { return lineCount == 0; }
+    public int getLineCount() { return lineCount; }
+    public long getTotalMinor() { return totalMinor; }
+    public double getTotal() { return Money.toEgp(totalMinor); }
+
+    public void forEachLine(LineVisitor visitor) {
+        for (int i = 0; i < quantities.length && lineCount > 0; i++) {
+            if (quantities[i] > 0) visitor.line(menu.item(i), quantities[i], menu.priceMinor(i) * quantities[i]);
+        }
+    }
+
+    /** The cart as order lines, with the cart's prices fixed into each line. */
+    public List<OrderLine> toLines() {
+        List<OrderLine> lines = new ArrayList<>(lineCount);
+        for (int i = 0; i < quantities.length; i++) {
+            if (quantities[i] > 0) lines.add(new OrderLine(menu.item(i), quantities[i], menu.priceMinor(i)));
+        }
+        return lines;
+    }
+
+    /** Moves the cart onto a newer menu version, repricing it; items no longer on the menu are dropped. */
+    public void rebase(MenuSnapshot newer) {
+        if (newer == menu) return;
+        int[] moved = new int[newer.size()];
+        long total = 0;
+        int lines = 0;
+        for (int i = 0; i < quantities.length; i++) {
+            if (quantities[i] == 0) continue;
+            int j = newer.indexOf(menu.item(i).getId());
+            if (j < 0) continue;
+            moved[j] = quantities[i];
+            total += newer.priceMinor(j) * quantities[i];
+            lines++;
+        }
+        menu = newer;
+        quantities = moved;
+        totalMinor = total;
+        lineCount = lines;
+    }
+}
@@ -1,37 +1,98 @@
 package cafeteria;
 
 import java.io.*;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class FileStudentRepository implements StudentRepository {
+    /** How eagerly changed students reach the file. */
+    public enum Durability {
+        /** Write and fsync on every change. */
+        FSYNC,
+        /** Write on every change, leave syncing to the OS. */
+        FLUSH,
+        /** Batch changes and write them together on an interval or once enough are pending. */
+        GROUP
+    }
+
     private static final String FILE = "students.txt";
-    private final Map<String, Student> map = new HashMap<>();
+    private static final int DEFAULT_BATCH_SIZE = 64;
+    private static final long DEFAULT_FLUSH_INTERVAL_MS = 200;
+
+    private final File file;
+    private final Durability durability;
+    private final int batchSize;
+    private final Map<String, Student> map = new ConcurrentHashMap<>();
+    // Students changed since the last flush, in change order (guarded by this)
+    private final Set<String> dirty = new LinkedHashSet<>();
+    private final ScheduledExecutorService flusher;
+    private final Thread shutdownHook;
+    // Lines currently in the file; once it is mostly superseded records it gets compacted
+    private int fileRecords;
+    // Set on a primary that feeds read replicas; flushed rows are appended to it
+    private volatile ReplicationLog replication;
 
     public FileStudentRepository() {
+        this(FILE, Durability.GROUP, DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_INTERVAL_MS);
+    }
+
+    public FileStudentRepository(String filename, Durability durability) {
+        this(filename, durability, DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_INTERVAL_MS);
+    }
+
+    /**
+     * @param batchSize       in GROUP mode, flush as soon as this many students are pending
+     * @param flushIntervalMs in GROUP mode, flush pending students at least this often
+     */
+    public FileStudentRepository(String filename, Durability durability, int batchSize, long flushIntervalMs) {
+        this.file = new File(filename);
+        this.durability = durability;
+        this.batchSize = batchSize;
         load();
+        if (durability == Durability.GROUP) {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "student-flusher");
+                t.setDaemon(true);
+                return t;
+            });
+            flusher.scheduleWithFixedDelay(this::flush, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+            shutdownHook = new Thread(this::flush);
+            Runtime.getRuntime().addShutdownHook(shutdownHook);
+        } else {
+            flusher = null;
+            shutdownHook = null;
+        }
     }
 
     @Override
     public Optional<Student> findById(String studentId) {
-        return Optional.ofNullable(map.get(studentId));
+        long t0 = System.nanoTime();
+        Student s = map.get(studentId);
+        Metrics.STUDENT_FIND.recordSince(t0);
+        return Optional.ofNullable(s);
     }
 
     @Override
-    public void save(Student s) {
+    public synchronized void save(Student s) {
+        long t0 = System.nanoTime();
         // ✅ Ensure student is always wrapped in PersistentStudent
         if (!(s instanceof PersistentStudent)) {
-            Student wrapped = new PersistentStudent(
+            s = new PersistentStudent(
                     s.getName(),
                     s.getStudentId(),
                     s.getPasswordHash(),
+                    s.getPoints(),
+                    s.getDiscountWallet(),
                     this
             );
-            wrapped.addPoints(s.getPoints());
-            wrapped.addDiscount(s.getDiscountWallet());
-            s = wrapped;
         }
         map.put(s.getStudentId(), s);
-        saveToFile();
+        markDirty(s);
+        Metrics.STUDENT_SAVE.recordSince(t0);
     }
 
     @Override
@@ -44,42 +105,113 @@ public class FileStudentRepository implements StudentRepository {
         return map.values();
     }
 
+    /** Writes every pending student to the file now. */
+    public synchronized void flush() {
+        if (dirty.isEmpty()) return;
+        long t0 = System.nanoTime();
+        ReplicationLog log = replication;
+        if (log != null) for (String id : dirty) log.append('T', row(map.get(id)));
+        if (fileRecords + dirty.size() > 2 * map.size() + DEFAULT_BATCH_SIZE) {
+            compact();
+        } else {
+            try (FileOutputStream out = new FileOutputStream(file, true);
+                 PrintWriter pw = new PrintWriter(new BufferedWriter(new OutputStreamWriter(out)))) {
+                for (String id : dirty) pw.println(row(map.get(id)));
+                pw.flush();
+                if (durability == Durability.FSYNC) out.getFD().sync();
+                Metrics.BYTES_WRITTEN.add(out.getChannel().position());
+                fileRecords += dirty.size();
+                dirty.clear();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        Metrics.STUDENT_FLUSH.recordSince(t0);
+    }
+
+    /** Flushes pending students and stops the background writer. */
+    public void close() {
+        if (flusher != null) {
+            flusher.shutdown();
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException ignored) {
+                // already shutting down; the hook flushes
+            }
+        }
+        flush();
+    }
+
+    private synchronized void markDirty(Student s) {
+        dirty.add(s.getStudentId());
+        if (durability != Durability.GROUP || dirty.size() >= batchSize) flush();
+    }
+
+    void setReplicationLog(ReplicationLog log) {
+        this.replication = log;
+    }
+
+    /** Stores a row shipped from the primary, replacing any older copy of that student. */
+    void applyRow(String row) {
+        String[] f = row.split(";", -1);
+        if (f.length < 3) return;
+        int points = f.length > 3 ? Integer.parseInt(f[3]) : 0;
+        double wallet = f.length > 4 ? Double.parseDouble(f[4]) : 0.0;
+        synchronized (this) {
+            map.put(f[1], new PersistentStudent(f[0], f[1], f[2], points, wallet, this));
+            markDirty(map.get(f[1]));
+        }
+    }
+
+    static String row(Student s) {
+        return s.getName() + ";" +
+                s.getStudentId() + ";" +
+                s.getPasswordHash() + ";" +
+                s.getPoints() + ";" +
+                s.getDiscountWallet();
+    }
+
     private void load() {
-        File f = new File(FILE);
-        if (!f.exists()) return;
-        try (BufferedReader br = new BufferedReader(new FileReader(f))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] p = line.split(";");
-                if (p.length >= 3) {
-                    String name = p[0];
-                    String studentId = p[1];
-                    String passwordHash = p[2];
-                    int points = (p.length >= 4) ? Integer.parseInt(p[3]) : 0;
-                    double wallet = (p.length >= 5) ? Double.parseDouble(p[4]) : 0.0;
-
-                    Student s = new PersistentStudent(name, studentId, passwordHash, this);
-                    s.addPoints(points);
-                    s.addDiscount(wallet);
-                    map.put(studentId, s);
+        try {
+            List<Student> loaded = MappedLineReader.read(file.toPath(), (byte) ';', true, f -> {
+                String name = f.string();
+                if (!f.hasNext()) return null;
+                String studentId = f.string();
+                if (!f.hasNext()) return null;
+                String passwordHash = f.string();
+                try {
+                    int points = f.hasNext() ? f.intValue() : 0;
+                    double wallet = f.hasNext() ? f.doubleValue() : 0.0;
+                    return new PersistentStudent(name, studentId, passwordHash, points, wallet, this);
+                } catch (NumberFormatException e) {
+                    return null; // skip a damaged line rather than the whole file
                 }
-            }
+            });
+            // later lines are newer versions of the same student
+            for (Student s : loaded) map.put(s.getStudentId(), s);
+            fileRecords = loaded.size();
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    private void saveToFile() {
-        try (PrintWriter pw = new PrintWriter(new FileWriter(FILE))) {
-            for (Student s : map.values()) {
-                pw.println(
-                        s.getName() + ";" +
-                                s.getStudentId() + ";" +
-                                s.getPasswordHash() + ";" +
-                                s.getPoints() + ";" +
-                                s.getDiscountWallet()
-                );
-            }
+    // Rewrites the file with one line per student, replacing it atomically
+    private void compact() {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp);
+             PrintWriter pw = new PrintWriter(new BufferedWriter(new OutputStreamWriter(out)))) {
+            for (Student s : map.values()) pw.println(row(s));
+            pw.flush();
+            if (durability == Durability.FSYNC) out.getFD().sync();
+            Metrics.BYTES_WRITTEN.add(out.getChannel().position());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            fileRecords = map.size();
+            dirty.clear();
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -89,35 +221,37 @@ public class FileStudentRepository implements StudentRepository {
     private static class PersistentStudent extends Student {
         private final FileStudentRepository repo;
 
-        public PersistentStudent(String name, String studentId, String passwordHash, FileStudentRepository repo) {
+        public PersistentStudent(String name, String studentId, String passwordHash, int points, double wallet, FileStudentRepository repo) {
             super(name, studentId, passwordHash);
+            super.addPoints(points);
+            super.addDiscount(wallet);
             this.repo = repo;
         }
 
         @Override
         public void addPoints(int p) {
             super.addPoints(p);
-            repo.save(this); // auto save
+            repo.markDirty(this); // auto save
         }
 
         @Override
         public boolean deductPoints(int p) {
             boolean ok = super.deductPoints(p);
-            if (ok) repo.save(this);
+            if (ok) repo.markDirty(this);
             return ok;
         }
 
         @Override
         public void addDiscount(double egp) {
             super.addDiscount(egp);
-            repo.save(this);
+            repo.markDirty(this);
         }
 
         @Override
         public double consumeDiscount(double total) {
             double used = super.consumeDiscount(total);
-            repo.save(this);
+            if (used > 0) repo.markDirty(this);
             return used;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,47 @@
+package cafeteria;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Recently used idempotency keys and the order each one produced. Bounded to
+ * {@code maxEntries} (oldest dropped first), and an entry is ignored once it is older than the
+ * TTL. A miss is not proof the key is new: the order repository is the durable fallback.
+ */
+final class IdempotencyCache {
+    private static final class Entry {
+        final Order order;
+        final long storedAt;
+        Entry(Order order, long storedAt) { this.order = order; this.storedAt = storedAt; }
+    }
+
+    private final long ttlNanos;
+    private final LinkedHashMap<String, Entry> entries;
+
+    IdempotencyCache(int maxEntries, Duration ttl) {
+        this.ttlNanos = ttl.toNanos();
+        this.entries = new LinkedHashMap<>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    synchronized Order get(String key) {
+        Entry e = entries.get(key);
+        if (e == null) return null;
+        if (System.nanoTime() - e.storedAt > ttlNanos) {
+            entries.remove(key);
+            return null;
+        }
+        return e.order;
+    }
+
+    synchronized void put(String key, Order order) {
+        entries.put(key, new Entry(order, System.nanoTime()));
+    }
+
+    synchronized int size() { return entries.size(); }
+}
@@ -1,63 +1,89 @@
 package cafeteria;
 
 import java.io.*;
+import java.nio.file.Paths;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 public class InMemoryMenuProvider implements MenuProvider {
     private static final String FILE = "menu.txt";
-    private final Map<String, MenuItem> items = new ConcurrentHashMap<>();
+    private final String file;
+    // Readers only ever do a volatile read; writers build a new snapshot and swap it in
+    private volatile MenuSnapshot current = MenuSnapshot.EMPTY;
 
     public InMemoryMenuProvider() {
+        this(FILE);
+    }
+
+    public InMemoryMenuProvider(String filename) {
+        this.file = filename;
         load();
     }
 
     @Override
     public Map<String, MenuItem> getMenu() {
-        return items;
+        return current.getItems();
     }
 
     @Override
     public Optional<MenuItem> findById(String id) {
-        return Optional.ofNullable(items.get(id));
+        return current.find(id);
+    }
+
+    @Override
+    public MenuSnapshot snapshot() {
+        return current;
     }
 
     @Override
     public void addItem(MenuItem item) {
-        items.put(item.getId(), new PersistentMenuItem(item, this));
-        saveToFile();
+        edit(b -> b.put(item));
     }
 
     @Override
     public void removeItem(String id) {
-        items.remove(id);
-        saveToFile();
+        edit(b -> b.remove(id));
+    }
+
+    @Override
+    public synchronized MenuSnapshot edit(Consumer<MenuSnapshot.Builder> changes) {
+        MenuSnapshot.Builder b = current.toBuilder();
+        changes.accept(b);
+        if (!b.hasChanges()) return current;
+        MenuSnapshot next = b.build();
+        current = next;
+        saveToFile(next);
+        return next;
     }
 
     private void load() {
-        File f = new File(FILE);
-        if (!f.exists()) return;
-        try (BufferedReader br = new BufferedReader(new FileReader(f))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] p = line.split(";");
-                if (p.length >= 5) {
-                    String id = p[0];
-                    String name = p[1];
-                    String description = p[2];
-                    double price = Double.parseDouble(p[3]);
-                    String category = p[4];
-                    items.put(id, new PersistentMenuItem(id, name, description, price, category, this));
+        try {
+            List<MenuItem> loaded = MappedLineReader.read(Paths.get(file), (byte) ';', false, f -> {
+                String id = f.string();
+                String name = f.hasNext() ? f.string() : null;
+                String description = f.hasNext() ? f.string() : null;
+                if (!f.hasNext()) return null;
+                double price;
+                try {
+                    price = f.doubleValue();
+                } catch (NumberFormatException e) {
+                    return null;
                 }
-            }
+                if (!f.hasNext()) return null;
+                String category = f.string();
+                return new MenuItem(id, name, description, price, category);
+            });
+            MenuSnapshot.Builder b = MenuSnapshot.EMPTY.toBuilder();
+            for (MenuItem item : loaded) b.put(item);
+            current = b.build();
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    private void saveToFile() {
-        try (PrintWriter pw = new PrintWriter(new FileWriter(FILE))) {
-            for (MenuItem item : items.values()) {
+    private void saveToFile(MenuSnapshot menu) {
+        try (PrintWriter pw = new PrintWriter(new FileWriter(file))) {
+            for (MenuItem item : menu.getItems().values()) {
                 pw.println(
                         item.getId() + ";" +
                                 item.getName() + ";" +
@@ -70,31 +96,4 @@ public class InMemoryMenuProvider implements MenuProvider {
             e.printStackTrace();
         }
     }
-
-    // 🔹 Persistent version of MenuItem that auto-saves when edited
-    private static class PersistentMenuItem extends MenuItem {
-        private final InMemoryMenuProvider provider;
-
-        public PersistentMenuItem(String id, String name, String description, double price, String category, InMemoryMenuProvider provider) {
-            super(id, name, description, price, category);
-            this.provider = provider;
-        }
-
-        public PersistentMenuItem(MenuItem base, InMemoryMenuProvider provider) {
-            super(base.getId(), base.getName(), base.getDescription(), base.getPrice(), base.getCategory());
-            this.provider = provider;
-        }
-
-        @Override
-        public void setName(String n) {
-            super.setName(n);
-            provider.saveToFile();
-        }
-
-        @Override
-        public void setPrice(double p) {
-            super.setPrice(p);
-            provider.saveToFile();
-        }
-    }
-}
\ No newline at end of file
+}
@@ -1,44 +1,155 @@
 package cafeteria;
 
 import java.io.*;
-import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 public class InMemoryOrderRepository implements OrderRepository {
+    private static final int DEFAULT_COMPACT_AFTER = 10_000;
+    private static final Comparator<Order> BY_CREATED =
+            Comparator.comparing(Order::getCreatedAt).thenComparing(Order::getOrderId);
+
     private final File file;
-    private final Map<String, Order> map = new HashMap<>();
+    // Compact copy of every order as of the last compaction
+    private final File snapshot;
+    // Journal segment being folded into the next snapshot
+    private final File segment;
+    private final boolean journal;
+    private final int compactAfter;
+    // Writes are serialized on this; reads go straight to the concurrent collections
+    private final Map<String, Order> map = new ConcurrentHashMap<>();
+    // Secondary indexes kept in step with map, oldest first
+    private final Map<String, NavigableSet<Order>> studentIndex = new ConcurrentHashMap<>();
+    private final Map<OrderStatus, NavigableSet<Order>> statusIndex = new EnumMap<>(OrderStatus.class);
+    // studentId + '|' + idempotency key -> order, for orders placed with a key
+    private final Map<String, Order> keyIndex = new ConcurrentHashMap<>();
+    // Finished orders moved out of memory by archiveOlderThan
+    private final OrderArchive archive;
+    private final ExecutorService compactor;
+    // Set on a primary that feeds read replicas; every change is appended to it under this lock
+    private volatile ReplicationLog replication;
+    private PrintWriter journalWriter;
+    // Records appended to the journal since it was last rotated
+    private int journalRecords;
+    private boolean compacting;
 
     public InMemoryOrderRepository(String filename) {
+        this(filename, true);
+    }
+
+    /**
+     * @param journal true to append one record per save/status change/delete (constant cost per write),
+     *                false to rewrite the whole file on every change.
+     */
+    public InMemoryOrderRepository(String filename, boolean journal) {
+        this(filename, journal, DEFAULT_COMPACT_AFTER);
+    }
+
+    /**
+     * @param compactAfter in journal mode, snapshot and truncate the journal in the background
+     *                     once it holds this many records
+     */
+    public InMemoryOrderRepository(String filename, boolean journal, int compactAfter) {
+        this(filename, journal, compactAfter, new File(filename + ".archive"));
+    }
+
+    /** A replica reads the primary's archive directory instead of keeping its own. */
+    InMemoryOrderRepository(String filename, boolean journal, int compactAfter, File archiveDir) {
         this.file = new File(filename);
+        this.snapshot = new File(filename + ".snapshot");
+        this.segment = new File(filename + ".1");
+        this.journal = journal;
+        this.compactAfter = compactAfter;
+        this.archive = new OrderArchive(archiveDir);
+        this.compactor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "order-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+        for (OrderStatus st : OrderStatus.values()) statusIndex.put(st, new ConcurrentSkipListSet<>(BY_CREATED));
         load();
+        map.values().forEach(this::index);
+        // a segment left over means the last compaction didn't finish
+        if (segment.exists()) writeSnapshot(new ArrayList<>(map.values()));
+        dropArchived();
+        if (journal && journalRecords >= compactAfter) compact();
     }
 
     @Override
-    public void save(Order o) {
-        map.put(o.getOrderId(), o);
-        saveAll();
+    public synchronized void save(Order o) {
+        long t0 = System.nanoTime();
+        Order old = map.put(o.getOrderId(), o);
+        if (old != null) unindex(old);
+        index(o);
+        if (journal) append(OrderRecords.save(o));
+        else saveAll();
+        publish(OrderRecords.save(o));
+        Metrics.ORDER_SAVE.recordSince(t0);
     }
 
     @Override
     public List<Order> byStudent(String studentId) {
-        return map.values().stream()
-                .filter(o -> o.getStudentId().equals(studentId))
-                .sorted(Comparator.comparing(Order::getCreatedAt).reversed())
-                .collect(Collectors.toList());
+        long t0 = System.nanoTime();
+        NavigableSet<Order> set = studentIndex.get(studentId);
+        List<Order> result = set == null ? new ArrayList<>() : new ArrayList<>(set.descendingSet());
+        result.addAll(archive.byStudent(studentId)); // older, so they go after the in-memory ones
+        Metrics.ORDER_BY_STUDENT.recordSince(t0);
+        return result;
+    }
+
+    @Override
+    public Optional<Order> findByIdempotencyKey(String studentId, String key) {
+        return Optional.ofNullable(keyIndex.get(studentId + "|" + key));
+    }
+
+    @Override
+    public OrderPage byStudent(String studentId, String cursor, int limit) {
+        long t0 = System.nanoTime();
+        Order after = OrderPage.position(cursor);
+        List<Order> page = new ArrayList<>(limit + 1);
+        NavigableSet<Order> set = studentIndex.get(studentId);
+        if (set != null) {
+            NavigableSet<Order> older = after == null ? set.descendingSet() : set.headSet(after, false).descendingSet();
+            for (Order o : older) {
+                page.add(o);
+                if (page.size() > limit) break;
+            }
+        }
+        // Archived orders are older than the cutoff but can still be newer than a long-open order in memory
+        List<Order> archived = archive.byStudent(studentId, after, limit + 1);
+        if (!archived.isEmpty()) {
+            page.addAll(archived);
+            page.sort(OrderPage.NEWEST_FIRST);
+            if (page.size() > limit + 1) page.subList(limit + 1, page.size()).clear();
+        }
+        Metrics.ORDER_BY_STUDENT.recordSince(t0);
+        return OrderPage.of(page, limit);
     }
 
     @Override
     public List<Order> byStatus(OrderStatus status) {
-        return map.values().stream()
-                .filter(o -> o.getStatus() == status)
-                .sorted(Comparator.comparing(Order::getCreatedAt))
-                .collect(Collectors.toList());
+        long t0 = System.nanoTime();
+        List<Order> result = new ArrayList<>(statusIndex.get(status));
+        Metrics.ORDER_BY_STATUS.recordSince(t0);
+        return result;
     }
 
     @Override
     public Optional<Order> findById(String orderId) {
-        return Optional.ofNullable(map.get(orderId));
+        long t0 = System.nanoTime();
+        Order o = map.get(orderId);
+        Metrics.ORDER_FIND.recordSince(t0);
+        return Optional.ofNullable(o);
     }
 
     @Override
@@ -46,59 +157,277 @@ public class InMemoryOrderRepository implements OrderRepository {
         return map.values();
     }
 
+    @Override
+    public void scan(LocalDate from, LocalDate to, OrderArchive.Visitor visitor) throws IOException {
+        archive.scan(from, to, visitor);
+        OrderRepository.super.scan(from, to, visitor);
+    }
+
+    @Override
+    public List<OrderArchive.Partition> archived() {
+        return archive.partitions();
+    }
+
+    /**
+     * Moves READY_FOR_PICKUP orders created more than {@code age} ago into the archive, one
+     * compressed file per day, and drops them from memory and from the journal. If the process
+     * stops after a file is written but before its deletes are journaled, the next start finds
+     * those orders in the archive and drops them then.
+     * @return how many orders were archived
+     */
+    @Override
+    public int archiveOlderThan(Duration age) {
+        LocalDateTime cutoff = LocalDateTime.now().minus(age);
+        Map<LocalDate, List<Order>> byDay = new TreeMap<>();
+        // the status index is ordered by creation time, so this stops at the first recent order
+        for (Order o : statusIndex.get(OrderStatus.READY_FOR_PICKUP)) {
+            if (!o.getCreatedAt().isBefore(cutoff)) break;
+            byDay.computeIfAbsent(o.getCreatedAt().toLocalDate(), d -> new ArrayList<>()).add(o);
+        }
+        int archived = 0;
+        for (Map.Entry<LocalDate, List<Order>> day : byDay.entrySet()) {
+            try {
+                archive.write(day.getKey(), day.getValue());
+            } catch (IOException e) {
+                e.printStackTrace();
+                continue; // keep that day in memory and try again next time
+            }
+            removeArchived(day.getValue());
+            archived += day.getValue().size();
+        }
+        if (archived > 0) compact();
+        return archived;
+    }
+
     /** ✅ new method to update status and persist immediately */
-    public void updateStatus(String orderId, OrderStatus newStatus) {
+    @Override
+    public synchronized Optional<OrderStatus> updateStatus(String orderId, OrderStatus newStatus) {
         Order o = map.get(orderId);
-        if (o != null) {
-            o.setStatus(newStatus);
-            saveAll();
+        if (o == null) return Optional.empty();
+        OrderStatus previous = o.getStatus();
+        unindexStatus(o);
+        o.setStatus(newStatus);
+        statusIndex.get(newStatus).add(o);
+        if (journal) append(OrderRecords.status(orderId, newStatus));
+        else saveAll();
+        publish(OrderRecords.status(orderId, newStatus));
+        return Optional.of(previous);
+    }
+
+    @Override
+    public synchronized void delete(String orderId) {
+        Order o = map.remove(orderId);
+        if (o == null) return;
+        unindex(o);
+        if (journal) append(OrderRecords.delete(orderId));
+        else saveAll();
+        publish(OrderRecords.delete(orderId));
+    }
+
+    /**
+     * Rotates the journal and writes a snapshot of the current orders in the background.
+     * Once the snapshot is in place the rotated segment is deleted, so startup only reads
+     * the snapshot plus whatever was appended since.
+     */
+    public synchronized void compact() {
+        if (!journal || compacting) return;
+        List<Order> copy = new ArrayList<>(map.values());
+        closeJournal();
+        if (file.exists() && !file.renameTo(segment)) return;
+        journalRecords = 0;
+        compacting = true;
+        compactor.execute(() -> {
+            writeSnapshot(copy);
+            synchronized (this) {
+                compacting = false;
+            }
+        });
+    }
+
+    /** Waits for a pending compaction and releases the journal file handle. */
+    @Override
+    public void close() {
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            closeJournal();
+        }
+    }
+
+    // The orders are safe on disk by now, so drop them like a delete but write one batch
+    private synchronized void removeArchived(List<Order> orders) {
+        ReplicationLog log = replication;
+        if (log != null) log.append('A', ""); // replicas pick up the new file before the deletes
+        for (Order o : orders) {
+            if (!map.remove(o.getOrderId(), o)) continue;
+            unindex(o);
+            if (journal) append(OrderRecords.delete(o.getOrderId()));
+            publish(OrderRecords.delete(o.getOrderId()));
+        }
+        if (!journal) saveAll();
+    }
+
+    // archiveOlderThan writes a day's file before it journals the deletes, so a crash in between
+    // leaves those orders in both places. Only days that have an archive file and orders still in
+    // memory are read, which after a clean run is usually just the day the cutoff fell on.
+    private void dropArchived() {
+        Map<LocalDate, List<Order>> byDay = new TreeMap<>();
+        for (Order o : map.values()) {
+            LocalDate day = o.getCreatedAt().toLocalDate();
+            if (archive.has(day)) byDay.computeIfAbsent(day, d -> new ArrayList<>()).add(o);
+        }
+        for (Map.Entry<LocalDate, List<Order>> day : byDay.entrySet()) {
+            Set<String> ids;
+            try {
+                ids = archive.orderIds(day.getKey());
+            } catch (IOException e) {
+                e.printStackTrace();
+                continue;
+            }
+            List<Order> both = new ArrayList<>();
+            for (Order o : day.getValue()) if (ids.contains(o.getOrderId())) both.add(o);
+            if (!both.isEmpty()) {
+                System.err.println("Dropping " + both.size() + " orders from " + file + " that are already archived for " + day.getKey());
+                removeArchived(both);
+            }
+        }
+    }
+
+    void setReplicationLog(ReplicationLog log) {
+        this.replication = log;
+    }
+
+    /** Re-reads the archive directory; a replica calls this when the primary has archived a day. */
+    void refreshArchive() {
+        archive.refresh();
+    }
+
+    private void publish(String record) {
+        ReplicationLog log = replication;
+        if (log != null) log.append('O', record);
+    }
+
+    private void index(Order o) {
+        studentIndex.computeIfAbsent(o.getStudentId(), k -> new ConcurrentSkipListSet<>(BY_CREATED)).add(o);
+        statusIndex.get(o.getStatus()).add(o);
+        if (o.getIdempotencyKey() != null) keyIndex.put(o.getStudentId() + "|" + o.getIdempotencyKey(), o);
+    }
+
+    private void unindex(Order o) {
+        NavigableSet<Order> set = studentIndex.get(o.getStudentId());
+        if (set != null && set.remove(o) && set.isEmpty()) studentIndex.remove(o.getStudentId());
+        if (o.getIdempotencyKey() != null) keyIndex.remove(o.getStudentId() + "|" + o.getIdempotencyKey(), o);
+        unindexStatus(o);
+    }
+
+    // The order's status may have been changed outside the repository, so check every set
+    private void unindexStatus(Order o) {
+        if (statusIndex.get(o.getStatus()).remove(o)) return;
+        for (NavigableSet<Order> set : statusIndex.values()) set.remove(o);
+    }
+
+    private void append(String record) {
+        long t0 = System.nanoTime();
+        try {
+            if (journalWriter == null) journalWriter = new PrintWriter(new BufferedWriter(new FileWriter(file, true)));
+            journalWriter.println(record);
+            journalWriter.flush();
+            if (journalWriter.checkError()) throw new IOException("Failed to append to " + file);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        Metrics.BYTES_WRITTEN.add(record.length() + 1);
+        Metrics.JOURNAL_APPEND.recordSince(t0);
+        if (++journalRecords >= compactAfter) compact();
+    }
+
+    private void closeJournal() {
+        if (journalWriter != null) {
+            journalWriter.close();
+            journalWriter = null;
+        }
+    }
+
+    // Status changes and deletes after the rotation are replayed on top of this copy, and
+    // re-applying them is harmless, so the orders can be written outside the lock.
+    private void writeSnapshot(List<Order> orders) {
+        long t0 = System.nanoTime();
+        File tmp = new File(snapshot.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp);
+             PrintWriter pw = new PrintWriter(new BufferedWriter(new OutputStreamWriter(out)))) {
+            for (Order o : orders) pw.println(OrderRecords.save(o));
+            pw.flush();
+            out.getFD().sync();
+            Metrics.BYTES_WRITTEN.add(out.getChannel().position());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        Metrics.SNAPSHOT_WRITE.recordSince(t0);
+        try {
+            Files.move(tmp.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.deleteIfExists(segment.toPath());
+        } catch (IOException e) {
+            e.printStackTrace();
         }
     }
 
     private void saveAll() {
         try (PrintWriter pw = new PrintWriter(new FileWriter(file))) {
-            for (Order o : map.values()) {
-                pw.println(o.getOrderId() + "|" +
-                        o.getStudentId() + "|" +
-                        o.getStatus() + "|" +
-                        o.getTotal() + "|" +
-                        o.getPointsEarned());
-            }
+            for (Order o : map.values()) pw.println(OrderRecords.save(o));
         } catch (IOException e) {
             e.printStackTrace();
         }
+        Metrics.BYTES_WRITTEN.add(file.length());
     }
 
     private void load() {
-        if (!file.exists()) return;
-        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] parts = line.split("\\|");
-                if (parts.length >= 5) {
-                    Order o = new Order(parts[1], new ArrayList<>());
-                    o.setStatus(OrderStatus.valueOf(parts[2]));
-                    o.setTotal(Double.parseDouble(parts[3]));
-                    o.setPointsEarned(Integer.parseInt(parts[4]));
-
-                    // ✅ restore original orderId from file
-                    try {
-                        Field f = Order.class.getDeclaredField("orderId");
-                        f.setAccessible(true);
-                        f.set(o, parts[0]);
-                    } catch (Exception ex) {
-                        ex.printStackTrace();
-                    }
-
-                    map.put(parts[0], o);
-                }
+        if (journal) {
+            replay(snapshot);
+            replay(segment);
+        }
+        journalRecords = replay(file);
+    }
+
+    // A crash part way through an append leaves a last line with no newline. It is cut off before
+    // replay: cut at the wrong byte it can still parse (an order missing its last fields), and left
+    // in place the next append would be glued onto it.
+    private static void trimTornTail(File f) throws IOException {
+        if (!f.exists()) return;
+        long end;
+        try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            long size = ch.size();
+            end = size;
+            ByteBuffer b = ByteBuffer.allocate(1);
+            while (end > 0) {
+                b.clear();
+                ch.read(b, end - 1);
+                if (b.get(0) == '\n') break;
+                end--;
             }
+            if (end == size) return;
+            System.err.println("Dropping a torn record of " + (size - end) + " bytes at the end of " + f);
+        }
+        try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.WRITE)) {
+            ch.truncate(end);
+        }
+    }
+
+    // Lines are parsed in parallel but applied in file order
+    private int replay(File f) {
+        try {
+            trimTornTail(f);
+            List<OrderRecords.Record> records = MappedLineReader.read(f.toPath(), (byte) OrderRecords.SEP, true, OrderRecords::parse);
+            for (OrderRecords.Record r : records) r.applyTo(map);
+            return records.size();
         } catch (IOException e) {
             e.printStackTrace();
+            return 0;
         }
     }
-    public void delete(String orderId) {
-        map.remove(orderId);
-        saveAll();
-    }
-}
\ No newline at end of file
+}
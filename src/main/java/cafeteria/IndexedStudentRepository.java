@@ -0,0 +1,550 @@
+package cafeteria;
+
+import java.io.*;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Students kept on disk, with only recently used ones in memory. Opening the store maps the
+ * index and reads nothing else, so startup time doesn't grow with the number of students.
+ * <pre>
+ * students.dat   [int length][name;id;hash;points;wallet] records, appended; a change appends a new version
+ * students.idx   memory-mapped open-addressing table: 32-byte header, then (id hash, record offset) slots
+ * </pre>
+ * Lookups probe the index once and read one record. Up to {@code cacheSize} students stay in
+ * an LRU cache; a student evicted while someone still holds it is found again through a weak
+ * map, so there is never more than one live copy of a student to update. Changes are written
+ * like {@link FileStudentRepository}'s, according to its {@link FileStudentRepository.Durability}.
+ * <p>
+ * If the index is missing or older than the data file it is rebuilt or caught up from the data
+ * file on open. Without a data file, students are imported from the old students.txt format.
+ */
+public class IndexedStudentRepository implements StudentRepository {
+    private static final int MAGIC = 0x53494458; // "SIDX"
+    private static final int HEADER = 32;
+    private static final int SLOT = 16;
+    private static final int MIN_CAPACITY = 1024;
+    private static final int DEFAULT_CACHE_SIZE = 10_000;
+    private static final int DEFAULT_BATCH_SIZE = 64;
+    private static final long DEFAULT_FLUSH_INTERVAL_MS = 200;
+
+    private final File dataFile;
+    private final File indexFile;
+    private final FileStudentRepository.Durability durability;
+    private final int batchSize;
+    // Disk state below is guarded by this
+    private FileChannel data;
+    private FileChannel indexChannel;
+    private MappedByteBuffer index;
+    private int capacity;
+    private int count;
+    private long dataLength;  // end of the last complete record
+    private long appended;    // records in the data file, superseded versions included
+    private int generation;   // bumped when the data file is rewritten or the index rebuilt
+
+    // Recently used students, least recent first (guarded by itself)
+    private final LinkedHashMap<String, StoredStudent> cache;
+    // Every student object handed out and still reachable, so a reload can't fork a second copy
+    private final Map<String, Ref> live = new ConcurrentHashMap<>();
+    private final ReferenceQueue<StoredStudent> cleared = new ReferenceQueue<>();
+    private final Map<String, StoredStudent> dirty = new LinkedHashMap<>();
+    private final ScheduledExecutorService flusher;
+    private final Thread shutdownHook;
+    // Set on a primary that feeds read replicas; flushed rows are appended to it
+    private volatile ReplicationLog replication;
+
+    private static final class Ref extends WeakReference<StoredStudent> {
+        final String id;
+        Ref(StoredStudent s, ReferenceQueue<StoredStudent> q) {
+            super(s, q);
+            this.id = s.getStudentId();
+        }
+    }
+
+    public IndexedStudentRepository() {
+        this("students.dat", "students.txt", FileStudentRepository.Durability.GROUP, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param legacyFile students.txt to import when {@code dataFile} doesn't exist yet, or null
+     * @param cacheSize  students kept in memory
+     */
+    public IndexedStudentRepository(String dataFile, String legacyFile, FileStudentRepository.Durability durability, int cacheSize) {
+        this.dataFile = new File(dataFile);
+        this.indexFile = new File(dataFile + ".idx");
+        this.durability = durability;
+        this.batchSize = DEFAULT_BATCH_SIZE;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, StoredStudent> eldest) {
+                return size() > cacheSize;
+            }
+        };
+        boolean importLegacy = legacyFile != null && !this.dataFile.exists() && new File(legacyFile).exists();
+        try {
+            open();
+            if (importLegacy) importFrom(new File(legacyFile));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (durability == FileStudentRepository.Durability.GROUP) {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "student-flusher");
+                t.setDaemon(true);
+                return t;
+            });
+            flusher.scheduleWithFixedDelay(this::flush, DEFAULT_FLUSH_INTERVAL_MS, DEFAULT_FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            shutdownHook = new Thread(this::flush);
+            Runtime.getRuntime().addShutdownHook(shutdownHook);
+        } else {
+            flusher = null;
+            shutdownHook = null;
+        }
+    }
+
+    @Override
+    public Optional<Student> findById(String studentId) {
+        long t0 = System.nanoTime();
+        StoredStudent s;
+        synchronized (cache) {
+            s = cache.get(studentId);
+        }
+        if (s != null) Metrics.STUDENT_CACHE_HITS.increment();
+        else s = load(studentId);
+        Metrics.STUDENT_FIND.recordSince(t0);
+        return Optional.ofNullable(s);
+    }
+
+    @Override
+    public void save(Student s) {
+        long t0 = System.nanoTime();
+        StoredStudent stored = s instanceof StoredStudent ? (StoredStudent) s
+                : new StoredStudent(s.getName(), s.getStudentId(), s.getPasswordHash(), s.getPoints(), s.getDiscountWallet(), this);
+        synchronized (this) {
+            live.put(stored.getStudentId(), new Ref(stored, cleared));
+            markDirty(stored);
+        }
+        remember(stored);
+        Metrics.STUDENT_SAVE.recordSince(t0);
+    }
+
+    @Override
+    public boolean exists(String studentId) {
+        synchronized (cache) {
+            if (cache.containsKey(studentId)) return true;
+        }
+        synchronized (this) {
+            return dirty.containsKey(studentId) || find(studentId) >= 0;
+        }
+    }
+
+    /** Reads every student from disk; meant for exports and tools, not request paths. */
+    @Override
+    public synchronized Collection<Student> all() {
+        flush();
+        List<Student> result = new ArrayList<>(count);
+        for (int i = 0; i < capacity; i++) {
+            int at = HEADER + i * SLOT;
+            if (index.getLong(at) == 0) continue;
+            try {
+                StoredStudent s = parse(readRecord(index.getLong(at + 8)));
+                Ref r = live.get(s.getStudentId());
+                StoredStudent held = r == null ? null : r.get();
+                if (held == null) live.put(s.getStudentId(), new Ref(s, cleared));
+                result.add(held != null ? held : s);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return result;
+    }
+
+    public synchronized int size() {
+        flush();
+        return count;
+    }
+
+    /**
+     * Names the current contents of the store: every save and every compaction changes it, so a
+     * copy of the students taken along with it is still current while it stays the same.
+     */
+    synchronized String fingerprint() {
+        flush();
+        return generation + "/" + dataLength + "/" + appended;
+    }
+
+    /** Students currently held in the LRU cache. */
+    public int cachedCount() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    /** Writes every pending student to disk now. */
+    public synchronized void flush() {
+        if (dirty.isEmpty()) return;
+        long t0 = System.nanoTime();
+        try {
+            long before = dataLength;
+            ReplicationLog log = replication;
+            for (StoredStudent s : dirty.values()) {
+                String row = FileStudentRepository.row(s);
+                append(row);
+                if (log != null) log.append('T', row);
+            }
+            dirty.clear();
+            writeHeader();
+            if (durability == FileStudentRepository.Durability.FSYNC) {
+                data.force(false);
+                index.force();
+            }
+            Metrics.BYTES_WRITTEN.add(dataLength - before);
+            if (appended > 2L * count + MIN_CAPACITY) compact();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        Metrics.STUDENT_FLUSH.recordSince(t0);
+    }
+
+    /** Flushes pending students, stops the background writer and releases the files. */
+    public void close() {
+        if (flusher != null) {
+            flusher.shutdown();
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException ignored) {
+                // already shutting down; the hook flushes
+            }
+        }
+        synchronized (this) {
+            flush();
+            try {
+                index.force();
+                data.close();
+                indexChannel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // ---------- cache ----------
+
+    void setReplicationLog(ReplicationLog log) {
+        this.replication = log;
+    }
+
+    private StoredStudent load(String studentId) {
+        StoredStudent s;
+        synchronized (this) {
+            purgeCleared();
+            Ref r = live.get(studentId);
+            s = r == null ? null : r.get();
+            if (s != null) {
+                Metrics.STUDENT_CACHE_HITS.increment();
+            } else {
+                Metrics.STUDENT_CACHE_MISSES.increment();
+                long offset = find(studentId);
+                if (offset < 0) return null;
+                try {
+                    s = parse(readRecord(offset));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return null;
+                }
+                live.put(studentId, new Ref(s, cleared));
+            }
+        }
+        remember(s);
+        return s;
+    }
+
+    private void remember(StoredStudent s) {
+        synchronized (cache) {
+            cache.put(s.getStudentId(), s);
+        }
+    }
+
+    private void purgeCleared() {
+        Ref r;
+        while ((r = (Ref) cleared.poll()) != null) live.remove(r.id, r);
+    }
+
+    private synchronized void markDirty(StoredStudent s) {
+        dirty.put(s.getStudentId(), s);
+        if (durability != FileStudentRepository.Durability.GROUP || dirty.size() >= batchSize) flush();
+    }
+
+    private StoredStudent parse(String row) {
+        String[] f = row.split(";", -1);
+        int points = f.length > 3 ? Integer.parseInt(f[3]) : 0;
+        double wallet = f.length > 4 ? Double.parseDouble(f[4]) : 0.0;
+        return new StoredStudent(f[0], f[1], f[2], points, wallet, this);
+    }
+
+    // ---------- data file ----------
+
+    private void open() throws IOException {
+        data = FileChannel.open(dataFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        indexChannel = FileChannel.open(indexFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = data.size();
+        boolean valid = false;
+        int gen = 0;
+        if (indexChannel.size() >= HEADER) {
+            MappedByteBuffer header = indexChannel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER);
+            gen = header.getInt(12);
+            int cap = header.getInt(4);
+            valid = header.getInt(0) == MAGIC && cap >= MIN_CAPACITY && Integer.bitCount(cap) == 1
+                    && indexChannel.size() >= HEADER + (long) cap * SLOT && header.getLong(16) <= size;
+            if (valid) {
+                capacity = cap;
+                index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (long) capacity * SLOT);
+                count = index.getInt(8);
+                dataLength = index.getLong(16);
+                appended = index.getLong(24);
+                generation = gen;
+            }
+        }
+        if (!valid) {
+            mapIndex(MIN_CAPACITY);
+            count = 0;
+            dataLength = 0;
+            appended = 0;
+            generation = gen + 1;
+        }
+        // records appended after the index was last saved (or all of them, after a rebuild)
+        indexTail(size);
+        writeHeader();
+    }
+
+    private void indexTail(long size) throws IOException {
+        ByteBuffer len = ByteBuffer.allocate(4);
+        long pos = dataLength;
+        while (pos + 4 <= size) {
+            len.clear();
+            data.read(len, pos);
+            int n = len.getInt(0);
+            if (n <= 0 || pos + 4 + n > size) break;
+            put(idOf(readRecord(pos)), pos);
+            appended++;
+            pos += 4 + n;
+        }
+        if (pos < size) data.truncate(pos); // a record cut short by a crash
+        dataLength = pos;
+    }
+
+    private void append(String row) throws IOException {
+        byte[] bytes = row.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buf = ByteBuffer.allocate(4 + bytes.length);
+        buf.putInt(bytes.length).put(bytes).flip();
+        long offset = dataLength;
+        while (buf.hasRemaining()) data.write(buf, offset + buf.position());
+        dataLength += 4 + bytes.length;
+        appended++;
+        put(idOf(row), offset);
+    }
+
+    private String readRecord(long offset) throws IOException {
+        ByteBuffer len = ByteBuffer.allocate(4);
+        data.read(len, offset);
+        ByteBuffer buf = ByteBuffer.allocate(len.getInt(0));
+        while (buf.hasRemaining()) {
+            if (data.read(buf, offset + 4 + buf.position()) < 0) throw new EOFException("Truncated student record at " + offset);
+        }
+        return new String(buf.array(), StandardCharsets.UTF_8);
+    }
+
+    private static String idOf(String row) {
+        int a = row.indexOf(';');
+        return row.substring(a + 1, row.indexOf(';', a + 1));
+    }
+
+    // Copies the latest version of every student into a new file and points the index at it
+    private void compact() throws IOException {
+        File tmp = new File(dataFile.getPath() + ".tmp");
+        long[] offsets = new long[capacity];
+        long pos = 0;
+        try (FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (int i = 0; i < capacity; i++) {
+                int at = HEADER + i * SLOT;
+                if (index.getLong(at) == 0) continue;
+                byte[] row = readRecord(index.getLong(at + 8)).getBytes(StandardCharsets.UTF_8);
+                ByteBuffer buf = ByteBuffer.allocate(4 + row.length);
+                buf.putInt(row.length).put(row).flip();
+                offsets[i] = pos;
+                while (buf.hasRemaining()) pos += out.write(buf, pos);
+            }
+            out.force(true);
+        }
+        // until the offsets below are in place the index doesn't match either file; a crash
+        // in between leaves a header that makes the next open rebuild from the data file
+        index.putInt(0, 0);
+        data.close();
+        Files.move(tmp.toPath(), dataFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        data = FileChannel.open(dataFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        for (int i = 0; i < capacity; i++) {
+            int at = HEADER + i * SLOT;
+            if (index.getLong(at) != 0) index.putLong(at + 8, offsets[i]);
+        }
+        dataLength = pos;
+        appended = count;
+        generation++;
+        writeHeader();
+        Metrics.BYTES_WRITTEN.add(pos);
+    }
+
+    private void importFrom(File legacy) throws IOException {
+        // later lines are newer versions of the same student
+        Map<String, String> rows = new LinkedHashMap<>();
+        try (BufferedReader r = Files.newBufferedReader(legacy.toPath())) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                String[] f = line.split(";", -1);
+                if (f.length >= 3) rows.put(f[1], line);
+            }
+        }
+        synchronized (this) {
+            for (String row : rows.values()) append(row);
+            writeHeader();
+            data.force(false);
+        }
+        System.out.println("Imported " + rows.size() + " students from " + legacy + " into " + dataFile);
+    }
+
+    // ---------- index ----------
+
+    private void mapIndex(int cap) throws IOException {
+        capacity = cap;
+        index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (long) cap * SLOT);
+        for (int i = 0; i < cap; i++) index.putLong(HEADER + i * SLOT, 0);
+    }
+
+    private void writeHeader() {
+        index.putInt(4, capacity);
+        index.putInt(8, count);
+        index.putInt(12, generation);
+        index.putLong(16, dataLength);
+        index.putLong(24, appended);
+        index.putInt(0, MAGIC);
+    }
+
+    // Offset of the student's latest record, or -1. A 64-bit hash match is confirmed against the record.
+    private long find(String studentId) {
+        long h = hash(studentId);
+        int mask = capacity - 1;
+        for (int i = (int) h & mask; ; i = (i + 1) & mask) {
+            int at = HEADER + i * SLOT;
+            long slot = index.getLong(at);
+            if (slot == 0) return -1;
+            if (slot == h && idAt(index.getLong(at + 8)).equals(studentId)) return index.getLong(at + 8);
+        }
+    }
+
+    private void put(String studentId, long offset) throws IOException {
+        long h = hash(studentId);
+        int mask = capacity - 1;
+        for (int i = (int) h & mask; ; i = (i + 1) & mask) {
+            int at = HEADER + i * SLOT;
+            long slot = index.getLong(at);
+            if (slot == 0) {
+                index.putLong(at, h);
+                index.putLong(at + 8, offset);
+                if (++count > capacity * 0.7) grow();
+                return;
+            }
+            if (slot == h && idAt(index.getLong(at + 8)).equals(studentId)) {
+                index.putLong(at + 8, offset);
+                return;
+            }
+        }
+    }
+
+    private String idAt(long offset) {
+        try {
+            return idOf(readRecord(offset));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Doubles the table in place: slots are copied out, the file is extended and they go back in
+    private void grow() throws IOException {
+        long[] slots = new long[count * 2];
+        int n = 0;
+        for (int i = 0; i < capacity; i++) {
+            int at = HEADER + i * SLOT;
+            long h = index.getLong(at);
+            if (h == 0) continue;
+            slots[n++] = h;
+            slots[n++] = index.getLong(at + 8);
+        }
+        index.putInt(0, 0); // rebuilt from the data file if we crash before the header is rewritten
+        mapIndex(capacity * 2);
+        int mask = capacity - 1;
+        for (int k = 0; k < n; k += 2) {
+            int i = (int) slots[k] & mask;
+            while (index.getLong(HEADER + i * SLOT) != 0) i = (i + 1) & mask;
+            index.putLong(HEADER + i * SLOT, slots[k]);
+            index.putLong(HEADER + i * SLOT + 8, slots[k + 1]);
+        }
+        writeHeader();
+    }
+
+    // 64-bit FNV-1a over the UTF-8 bytes; 0 marks an empty slot so it is never returned
+    private static long hash(String studentId) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : studentId.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return h == 0 ? 1 : h;
+    }
+
+    // Writes itself back through the repository whenever its balances change
+    private static class StoredStudent extends Student {
+        private final IndexedStudentRepository repo;
+
+        StoredStudent(String name, String studentId, String passwordHash, int points, double wallet, IndexedStudentRepository repo) {
+            super(name, studentId, passwordHash);
+            super.addPoints(points);
+            super.addDiscount(wallet);
+            this.repo = repo;
+        }
+
+        @Override
+        public void addPoints(int p) {
+            super.addPoints(p);
+            repo.markDirty(this);
+        }
+
+        @Override
+        public boolean deductPoints(int p) {
+            boolean ok = super.deductPoints(p);
+            if (ok) repo.markDirty(this);
+            return ok;
+        }
+
+        @Override
+        public void addDiscount(double egp) {
+            super.addDiscount(egp);
+            repo.markDirty(this);
+        }
+
+        @Override
+        public double consumeDiscount(double total) {
+            double used = super.consumeDiscount(total);
+            if (used > 0) repo.markDirty(this);
+            return used;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package cafeteria;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Live view of the kitchen's work: a FIFO of PLACED orders and the set of PREPARING ones.
+ * Kept up to date from {@link OrderProcessor} events, so screens never have to scan the
+ * order history. The repository is only read once, at construction, to pick up open orders.
+ */
+public class KitchenQueue implements OrderListener {
+    /** Called after an order enters, moves within or leaves the queue; its status says which. */
+    public interface Subscriber {
+        void changed(Order o);
+    }
+
+    private final OrderProcessor processor;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition hasPlaced = lock.newCondition();
+    private final LinkedHashMap<String, Order> placed = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Order> preparing = new LinkedHashMap<>();
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+
+    public KitchenQueue(OrderProcessor processor) {
+        this.processor = processor;
+        processor.addListener(this);
+        // Registered first so nothing placed meanwhile is missed; the status check skips orders that already moved on
+        lock.lock();
+        try {
+            for (Order o : processor.listByStatus(OrderStatus.PLACED)) {
+                if (o.getStatus() == OrderStatus.PLACED) placed.putIfAbsent(o.getOrderId(), o);
+            }
+            for (Order o : processor.listByStatus(OrderStatus.PREPARING)) {
+                if (o.getStatus() == OrderStatus.PREPARING) preparing.putIfAbsent(o.getOrderId(), o);
+            }
+            if (!placed.isEmpty()) hasPlaced.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void subscribe(Subscriber s) { subscribers.add(s); }
+    public void unsubscribe(Subscriber s) { subscribers.remove(s); }
+
+    @Override
+    public void orderPlaced(Order o) {
+        if (o.getStatus() != OrderStatus.PLACED) return;
+        lock.lock();
+        try {
+            placed.put(o.getOrderId(), o);
+            hasPlaced.signal();
+        } finally {
+            lock.unlock();
+        }
+        fire(o);
+    }
+
+    @Override
+    public void statusChanged(Order o, OrderStatus previous) {
+        lock.lock();
+        try {
+            placed.remove(o.getOrderId());
+            preparing.remove(o.getOrderId());
+            if (o.getStatus() == OrderStatus.PLACED) {
+                placed.put(o.getOrderId(), o);
+                hasPlaced.signal();
+            } else if (o.getStatus() == OrderStatus.PREPARING) {
+                preparing.put(o.getOrderId(), o);
+            }
+        } finally {
+            lock.unlock();
+        }
+        fire(o);
+    }
+
+    /** Waits for the oldest PLACED order, claims it and marks it PREPARING. */
+    public Order take() throws InterruptedException {
+        Order o;
+        lock.lockInterruptibly();
+        try {
+            while (placed.isEmpty()) hasPlaced.await();
+            o = claim();
+        } finally {
+            lock.unlock();
+        }
+        processor.updateStatus(o.getOrderId(), OrderStatus.PREPARING);
+        return o;
+    }
+
+    /** Like {@link #take()} but gives up after the timeout; empty if nothing was placed in time. */
+    public Optional<Order> poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        Order o;
+        lock.lockInterruptibly();
+        try {
+            while (placed.isEmpty()) {
+                if (nanos <= 0) return Optional.empty();
+                nanos = hasPlaced.awaitNanos(nanos);
+            }
+            o = claim();
+        } finally {
+            lock.unlock();
+        }
+        processor.updateStatus(o.getOrderId(), OrderStatus.PREPARING);
+        return Optional.of(o);
+    }
+
+    /** PLACED orders, oldest first. */
+    public List<Order> placed() {
+        lock.lock();
+        try {
+            return new ArrayList<>(placed.values());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** PREPARING orders, in the order they were started. */
+    public List<Order> preparing() {
+        lock.lock();
+        try {
+            return new ArrayList<>(preparing.values());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Moves the head of the FIFO to preparing right away so concurrent takers never get the same order
+    private Order claim() {
+        Iterator<Order> it = placed.values().iterator();
+        Order o = it.next();
+        it.remove();
+        preparing.put(o.getOrderId(), o);
+        return o;
+    }
+
+    private void fire(Order o) {
+        for (Subscriber s : subscribers) {
+            try {
+                s.changed(o);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package cafeteria;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram in the style of HdrHistogram: values (nanoseconds) fall into
+ * log-linear buckets, 64 per power of two, so any percentile is within ~1.6% of the true value.
+ * Recording only increments counters and never allocates, so it can stay on in production.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 6;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    // Values up to 2^44 ns (about 4.9 hours); anything larger lands in the last bucket
+    private static final int MAX_EXPONENT = 44;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 1) * SUB_COUNT;
+
+    private final String name;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public LatencyHistogram(String name) { this.name = name; }
+
+    public String getName() { return name; }
+
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts.incrementAndGet(indexOf(nanos));
+        count.incrementAndGet();
+        sum.addAndGet(nanos);
+        long m;
+        while (nanos > (m = max.get()) && !max.compareAndSet(m, nanos)) { /* retry */ }
+    }
+
+    /** Records the time elapsed since {@code startNanos} (a {@link System#nanoTime()} reading). */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() { return count.get(); }
+    public long getMax() { return max.get(); }
+    public double getMean() {
+        long c = count.get();
+        return c == 0 ? 0 : (double) sum.get() / c;
+    }
+
+    /** Upper bound of the bucket holding the given percentile (0-100), in nanoseconds. */
+    public long percentile(double p) {
+        long total = count.get();
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(total * p / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return i == BUCKETS - 1 ? max.get() : Math.min(upperBound(i), max.get());
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%-24s count=%d mean=%.1fus p50=%.1fus p99=%.1fus p999=%.1fus max=%.1fus",
+                name, getCount(), getMean() / 1e3, percentile(50) / 1e3, percentile(99) / 1e3,
+                percentile(99.9) / 1e3, getMax() / 1e3);
+    }
+
+    // Values below 64 map 1:1; above that, the top SUB_BITS bits after the leading one pick the sub-bucket
+    private static int indexOf(long v) {
+        int exponent = 63 - Long.numberOfLeadingZeros(v | (SUB_COUNT - 1)) - SUB_BITS + 1;
+        if (exponent > MAX_EXPONENT - SUB_BITS) return BUCKETS - 1;
+        int sub = (int) (v >>> Math.max(0, exponent - 1)) & (SUB_COUNT - 1);
+        return exponent == 0 ? (int) v : exponent * SUB_COUNT + sub;
+    }
+
+    private static long upperBound(int index) {
+        int exponent = index / SUB_COUNT;
+        int sub = index % SUB_COUNT;
+        if (exponent == 0) return sub;
+        return ((long) (SUB_COUNT + sub + 1) << (exponent - 1)) - 1;
+    }
+}
@@ -0,0 +1,197 @@
+package cafeteria;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Students ranked by loyalty points, kept up to date from {@link LoyaltyProgram} events so
+ * kiosks and the API never have to sort every student. The top of the board is a skip list
+ * that readers walk without locking; a student's rank comes from a Fenwick tree counting
+ * students per points balance, so both cost O(log n) however many students there are.
+ * Students with no points aren't on the board. Ties share a rank.
+ *
+ * <p>Building the board means reading every student, which with {@link IndexedStudentRepository}
+ * is a pass over the whole data file. Given a file, {@link #close} saves the board there along
+ * with the store's {@link IndexedStudentRepository#fingerprint fingerprint}, and the next start
+ * reads it back instead if the store still has the same fingerprint. A store changed since, by
+ * a process without a board or one that stopped without closing it, gets walked again. Boards
+ * over other stores are always built by walking them and aren't saved.
+ */
+public class Leaderboard implements LoyaltyListener, AutoCloseable {
+    public static final String FILE = "leaderboard.dat";
+
+    /** One student's place on the board, as of the last change to their points. */
+    public static final class Entry {
+        private final String studentId;
+        private final String name;
+        private final int points;
+
+        Entry(String studentId, String name, int points) {
+            this.studentId = studentId;
+            this.name = name;
+            this.points = points;
+        }
+
+        public String getStudentId() { return studentId; }
+        public String getName() { return name; }
+        public int getPoints() { return points; }
+    }
+
+    private static final Comparator<Entry> ORDER = Comparator.comparingInt((Entry e) -> -e.points)
+            .thenComparing(e -> e.studentId);
+
+    private final StudentRepository students;
+    // Where close saves the board, or null
+    private final File file;
+    private final ConcurrentSkipListSet<Entry> ranked = new ConcurrentSkipListSet<>(ORDER);
+    // Everything below is guarded by this; readers of ranked don't take it
+    private final Map<String, Entry> entries = new HashMap<>();
+    // Fenwick tree of how many students hold each balance, indexed by points (1..tree.length - 1)
+    private int[] tree = new int[1024];
+
+    /** Subscribes to {@code loyalty}, then ranks the students its repository already holds. */
+    public Leaderboard(LoyaltyProgram loyalty) {
+        this(loyalty, null);
+    }
+
+    /**
+     * Like {@link #Leaderboard(LoyaltyProgram)}, but starts from the board saved in
+     * {@code filename} by the last {@link #close} when there is one.
+     */
+    public Leaderboard(LoyaltyProgram loyalty, String filename) {
+        this.students = loyalty.getStudentRepository();
+        this.file = filename == null || !(students instanceof IndexedStudentRepository) ? null : new File(filename);
+        loyalty.addListener(this);
+        // Registered first so no change is missed; a student already moved by an event keeps that value
+        if (file != null && load()) return;
+        for (Student s : students.all()) {
+            synchronized (this) {
+                if (!entries.containsKey(s.getStudentId())) put(s.getStudentId(), s.getName(), s.getPoints());
+            }
+        }
+    }
+
+    @Override
+    public void redeemed(String studentId, int pointsCost) {
+        // the balance arrives through pointsChanged
+    }
+
+    @Override
+    public synchronized void pointsChanged(Student s) {
+        put(s.getStudentId(), s.getName(), s.getPoints());
+    }
+
+    /** The {@code n} students with the most points, best first. */
+    public List<Entry> top(int n) {
+        List<Entry> out = new ArrayList<>(Math.min(n, 64));
+        Set<String> seen = new HashSet<>();
+        // A student whose points just changed can briefly be listed twice; show them once
+        for (Entry e : ranked) {
+            if (out.size() >= n) break;
+            if (seen.add(e.studentId)) out.add(e);
+        }
+        return out;
+    }
+
+    /** 1 for the leader; students with equal points share a rank. Empty if not on the board. */
+    public synchronized OptionalInt rankOf(String studentId) {
+        Entry e = entries.get(studentId);
+        if (e == null) return OptionalInt.empty();
+        return OptionalInt.of(1 + entries.size() - prefix(e.points));
+    }
+
+    /** Number of students on the board. */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /** Saves the board for the next start, if it was given a file. */
+    @Override
+    public synchronized void close() {
+        if (file == null) return;
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp);
+             PrintWriter pw = new PrintWriter(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)))) {
+            pw.println(fingerprint());
+            for (Entry e : entries.values()) pw.println(e.studentId + "|" + e.points + "|" + e.name);
+            pw.flush();
+            out.getFD().sync();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Reads the saved board; false if there is none or the store has changed since it was saved
+    private boolean load() {
+        if (!file.exists()) return false;
+        List<String[]> rows = new ArrayList<>();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            if (!fingerprint().equals(in.readLine())) {
+                System.out.println("Student store changed since " + file + " was saved; rebuilding the leaderboard");
+                return false;
+            }
+            for (String line; (line = in.readLine()) != null; ) {
+                String[] f = line.split("\\|", 3);
+                if (f.length < 3) return false;
+                Integer.parseInt(f[1]);
+                rows.add(f);
+            }
+        } catch (IOException | NumberFormatException e) {
+            e.printStackTrace();
+            return false;
+        }
+        synchronized (this) {
+            for (String[] f : rows) if (!entries.containsKey(f[0])) put(f[0], f[2], Integer.parseInt(f[1]));
+        }
+        return true;
+    }
+
+    private String fingerprint() {
+        return ((IndexedStudentRepository) students).fingerprint();
+    }
+
+    private void put(String studentId, String name, int points) {
+        Entry old = entries.get(studentId);
+        if (old != null && old.points == points) return;
+        if (points > 0) {
+            if (points >= tree.length) grow(points);
+            Entry e = new Entry(studentId, name, points);
+            ranked.add(e);
+            entries.put(studentId, e);
+            add(points, 1);
+        } else {
+            entries.remove(studentId);
+        }
+        if (old != null) {
+            ranked.remove(old);
+            add(old.points, -1);
+        }
+    }
+
+    // Number of students with at most p points
+    private int prefix(int p) {
+        int sum = 0;
+        for (int i = Math.min(p, tree.length - 1); i > 0; i -= i & -i) sum += tree[i];
+        return sum;
+    }
+
+    private void add(int p, int delta) {
+        for (int i = p; i < tree.length; i += i & -i) tree[i] += delta;
+    }
+
+    // Rebuilds the tree from the entries once a balance passes its end; doubling keeps this rare
+    private void grow(int points) {
+        tree = new int[Integer.highestOneBit(points) << 1];
+        for (Entry e : entries.values()) add(e.points, 1);
+    }
+}
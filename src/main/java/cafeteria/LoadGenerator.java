@@ -0,0 +1,283 @@
+package cafeteria;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lunch-rush simulator. Seeds students and a menu in a temporary directory, then starts student
+ * sessions (login, browse, cart, checkout, sometimes a redemption, logout) at a fixed arrival
+ * rate while kitchen workers move orders to READY. Arrivals are open-loop: a session's latency
+ * is measured from when it was due to start, so a backlog shows up in the numbers instead of
+ * quietly lowering the load. Ends with consistency checks on points, wallets, orders and the leaderboard.
+ *
+ * <pre>java -cp out cafeteria.LoadGenerator [students=2000] [actors=32] [rate=200] [seconds=20] [kitchen=4] [redeem=0.1] [retry=0.05] [shards=1] [cache=10000]</pre>
+ * {@code rate} is sessions per second, {@code actors} the threads running them, {@code kitchen}
+ * the staff threads, {@code redeem} the share of sessions that try to redeem points and
+ * {@code retry} the share whose checkout is sent twice with the same idempotency key.
+ * With {@code shards} above 1 orders go to a {@link ShardedOrderRepository} of that many files.
+ * Students live in an {@link IndexedStudentRepository}, as in the apps, keeping {@code cache} of them in memory.
+ * Exits with status 1 if a check fails.
+ */
+public class LoadGenerator {
+    private static final int DISCOUNT_COST = 50;
+    private static final double DISCOUNT_EGP = 10.0;
+
+    private final LatencyHistogram session = new LatencyHistogram("session (from arrival)");
+    private final LatencyHistogram login = new LatencyHistogram("login");
+    private final LatencyHistogram browse = new LatencyHistogram("browse + cart");
+    private final LatencyHistogram checkout = new LatencyHistogram("checkout");
+    private final LatencyHistogram redeem = new LatencyHistogram("redeem");
+    private final LatencyHistogram kitchenTurn = new LatencyHistogram("kitchen take -> ready");
+    private final List<LatencyHistogram> histograms = List.of(session, login, browse, checkout, redeem, kitchenTurn);
+
+    private final LongAdder placed = new LongAdder();
+    private final LongAdder redeemed = new LongAdder();
+    private final LongAdder declined = new LongAdder();
+    private final LongAdder served = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+    private final LongAdder retryMismatches = new LongAdder();
+    private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opts = new HashMap<>();
+        for (String a : args) {
+            int eq = a.indexOf('=');
+            if (eq > 0) opts.put(a.substring(0, eq), a.substring(eq + 1));
+        }
+        int students = Integer.parseInt(opts.getOrDefault("students", "2000"));
+        int actors = Integer.parseInt(opts.getOrDefault("actors", "32"));
+        double rate = Double.parseDouble(opts.getOrDefault("rate", "200"));
+        int seconds = Integer.parseInt(opts.getOrDefault("seconds", "20"));
+        int kitchen = Integer.parseInt(opts.getOrDefault("kitchen", "4"));
+        double redeemShare = Double.parseDouble(opts.getOrDefault("redeem", "0.1"));
+        double retryShare = Double.parseDouble(opts.getOrDefault("retry", "0.05"));
+        int shards = Integer.parseInt(opts.getOrDefault("shards", "1"));
+        int cache = Integer.parseInt(opts.getOrDefault("cache", "10000"));
+
+        Path dir = Files.createTempDirectory("cafeteria-load");
+        boolean ok;
+        try {
+            ok = new LoadGenerator().run(dir, students, actors, rate, seconds, kitchen, redeemShare, retryShare, shards, cache);
+        } finally {
+            try (var paths = Files.walk(dir)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+        System.exit(ok ? 0 : 1);
+    }
+
+    boolean run(Path dir, int studentCount, int actors, double rate, int seconds, int kitchenStaff, double redeemShare,
+               double retryShare, int shards, int cacheSize)
+            throws InterruptedException, IOException {
+        IndexedStudentRepository studentRepo = new IndexedStudentRepository(dir.resolve("students.dat").toString(), null,
+                FileStudentRepository.Durability.GROUP, cacheSize);
+        InMemoryMenuProvider menuProvider = new InMemoryMenuProvider(dir.resolve("menu.txt").toString());
+        String orderFile = dir.resolve("order.txt").toString();
+        OrderRepository orderRepo = shards > 1 ? ShardedOrderRepository.local(orderFile, shards) : new InMemoryOrderRepository(orderFile);
+        LoyaltyProgram loyalty = new LoyaltyProgram(new BasicPointsCalculator(10.0), studentRepo);
+        Leaderboard board = new Leaderboard(loyalty);
+        LongAdder notices = new LongAdder();
+        AsyncNotificationDispatcher notifications = new AsyncNotificationDispatcher(batch -> notices.add(batch.size()));
+        OrderProcessor orders = new OrderProcessor(menuProvider, orderRepo, loyalty, notifications);
+        MenuManager menuMgr = new MenuManager(menuProvider);
+        StudentManager studentMgr = new StudentManager(studentRepo);
+        KitchenQueue kitchen = new KitchenQueue(orders);
+        Map<String, LongAdder> pointsSpent = new ConcurrentHashMap<>();
+        loyalty.addListener((sid, cost) -> pointsSpent.computeIfAbsent(sid, k -> new LongAdder()).add(cost));
+
+        seedMenu(menuMgr);
+        for (int i = 0; i < studentCount; i++) studentMgr.register("Student " + i, "S" + i, "pw" + i);
+        System.out.printf("Seeded %d students, %d menu items. Target %.0f sessions/s for %ds, %d actors, %d kitchen staff%n",
+                studentCount, menuMgr.snapshot().size(), rate, seconds, actors, kitchenStaff);
+
+        AtomicBoolean open = new AtomicBoolean(true);
+        List<Thread> staff = new ArrayList<>();
+        for (int k = 0; k < kitchenStaff; k++) {
+            Thread t = new Thread(() -> kitchenLoop(kitchen, orders, open), "kitchen-" + k);
+            t.start();
+            staff.add(t);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(actors);
+        long interval = (long) (1e9 / rate);
+        long start = System.nanoTime();
+        long end = start + seconds * 1_000_000_000L;
+        long arrivals = 0;
+        for (long due = start; due < end; due = start + ++arrivals * interval) {
+            long wait = due - System.nanoTime();
+            if (wait > 0) LockSupport.parkNanos(wait);
+            long scheduled = due;
+            int student = ThreadLocalRandom.current().nextInt(studentCount);
+            pool.execute(() -> studentSession(scheduled, student, studentMgr, menuMgr, orders, loyalty, redeemShare, retryShare));
+        }
+        pool.shutdown();
+        if (!pool.awaitTermination(60, TimeUnit.SECONDS)) System.out.println("WARNING: sessions still running after 60s");
+        long elapsed = System.nanoTime() - start;
+
+        // let the kitchen finish what is queued, then stop it
+        long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (!kitchen.placed().isEmpty() && System.nanoTime() < drainDeadline) Thread.sleep(20);
+        open.set(false);
+        for (Thread t : staff) t.join();
+        notifications.close();
+
+        printReport(arrivals, elapsed, notices.sum(), kitchen);
+        boolean ok = check(studentCount, studentRepo, orderRepo, pointsSpent, board);
+
+        orderRepo.close();
+        studentRepo.close();
+        return ok;
+    }
+
+    private void studentSession(long scheduled, int n, StudentManager studentMgr, MenuManager menuMgr,
+                                OrderProcessor orders, LoyaltyProgram loyalty, double redeemShare, double retryShare) {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        String sid = "S" + n;
+        String token = null;
+        try {
+            long t0 = System.nanoTime();
+            token = studentMgr.openSession(sid, "pw" + n).orElseThrow(() -> new IllegalStateException("login failed"));
+            Student s = studentMgr.resolveSession(token).orElseThrow(() -> new IllegalStateException("session lost"));
+            login.recordSince(t0);
+
+            t0 = System.nanoTime();
+            MenuSnapshot menu = menuMgr.snapshot();
+            Cart cart = new Cart(menu);
+            int lines = 1 + rnd.nextInt(3);
+            for (int i = 0; i < lines; i++) cart.add(rnd.nextInt(menu.size()), 1 + rnd.nextInt(2));
+            browse.recordSince(t0);
+
+            t0 = System.nanoTime();
+            String key = UUID.randomUUID().toString();
+            PaymentProcessor pay = rnd.nextInt(3) == 0 ? new CardPaymentProcessor() : new CashPaymentProcessor();
+            Order first = orders.placeOrder(s.getStudentId(), cart, pay, key);
+            checkout.recordSince(t0);
+            placed.increment();
+
+            // A client that never saw the response sends the same checkout again
+            if (rnd.nextDouble() < retryShare) {
+                Order again = orders.placeOrder(s.getStudentId(), cart, pay, key);
+                retried.increment();
+                if (!again.getOrderId().equals(first.getOrderId())) retryMismatches.increment();
+            }
+
+            if (rnd.nextDouble() < redeemShare) {
+                t0 = System.nanoTime();
+                boolean done = loyalty.redeemDiscount(sid, DISCOUNT_COST, DISCOUNT_EGP);
+                redeem.recordSince(t0);
+                if (done) redeemed.increment();
+                else declined.increment();
+            }
+        } catch (RuntimeException e) {
+            errors.computeIfAbsent(e.getClass().getSimpleName() + ": " + e.getMessage(), k -> new LongAdder()).increment();
+        } finally {
+            if (token != null) studentMgr.closeSession(token);
+            session.recordSince(scheduled);
+        }
+    }
+
+    private void kitchenLoop(KitchenQueue kitchen, OrderProcessor orders, AtomicBoolean open) {
+        try {
+            while (open.get()) {
+                Optional<Order> next = kitchen.poll(50, TimeUnit.MILLISECONDS);
+                if (next.isEmpty()) continue;
+                long t0 = System.nanoTime();
+                orders.updateStatus(next.get().getOrderId(), OrderStatus.READY_FOR_PICKUP);
+                kitchenTurn.recordSince(t0);
+                served.increment();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void printReport(long arrivals, long elapsedNanos, long notices, KitchenQueue kitchen) {
+        double secs = elapsedNanos / 1e9;
+        System.out.printf("%nSessions: %d in %.1fs (%.1f/s achieved)%n", arrivals, secs, arrivals / secs);
+        System.out.printf("Orders placed: %d (%.1f/s), served: %d, still queued: %d placed / %d preparing%n",
+                placed.sum(), placed.sum() / secs, served.sum(), kitchen.placed().size(), kitchen.preparing().size());
+        System.out.printf("Redemptions: %d done, %d declined; notifications delivered: %d%n", redeemed.sum(), declined.sum(), notices);
+        System.out.printf("Checkout retries: %d%n", retried.sum());
+        for (LatencyHistogram h : histograms) {
+            if (h.getCount() > 0) System.out.println(h);
+        }
+        if (errors.isEmpty()) System.out.println("Errors: none");
+        else errors.forEach((k, v) -> System.out.println("Error x" + v.sum() + ": " + k));
+    }
+
+    // Every point a student holds must be earned by an order and not yet spent; every wallet
+    // pound must come from a redemption and not yet be applied to an order.
+    private boolean check(int studentCount, StudentRepository students, OrderRepository orders,
+                          Map<String, LongAdder> pointsSpent, Leaderboard board) {
+        long earned = 0, balance = 0, spent = 0, orderCount = 0;
+        double applied = 0, wallets = 0;
+        int mismatched = 0;
+        for (int i = 0; i < studentCount; i++) {
+            String sid = "S" + i;
+            Student s = students.findById(sid).orElse(null);
+            if (s == null) { mismatched++; continue; }
+            long e = 0;
+            for (Order o : orders.byStudent(sid)) {
+                e += o.getPointsEarned();
+                applied += o.getDiscountApplied();
+                orderCount++;
+            }
+            LongAdder sp = pointsSpent.get(sid);
+            long spentHere = sp == null ? 0 : sp.sum();
+            if (e - spentHere != s.getPoints()) mismatched++;
+            earned += e;
+            spent += spentHere;
+            balance += s.getPoints();
+            wallets += s.getDiscountWallet();
+        }
+        double credited = redeemed.sum() * DISCOUNT_EGP;
+        boolean pointsOk = mismatched == 0 && earned - spent == balance;
+        boolean walletOk = Math.abs(credited - applied - wallets) < 0.01;
+        boolean ordersOk = orderCount == placed.sum() && retryMismatches.sum() == 0;
+        // The board must rank every student with points as a full sort of the balances would
+        int[] sorted = students.all().stream().mapToInt(Student::getPoints).filter(p -> p > 0).sorted().toArray();
+        int misranked = 0;
+        for (Student s : students.all()) {
+            int rank = board.rankOf(s.getStudentId()).orElse(0);
+            int expected = 0;
+            if (s.getPoints() > 0) {
+                int above = sorted.length, lo = 0;
+                while (lo < above) {
+                    int mid = (lo + above) >>> 1;
+                    if (sorted[mid] <= s.getPoints()) lo = mid + 1; else above = mid;
+                }
+                expected = 1 + sorted.length - lo;
+            }
+            if (rank != expected) misranked++;
+        }
+        boolean boardOk = misranked == 0 && board.size() == sorted.length;
+        System.out.printf("%nCheck points:  earned %d - redeemed %d = %d, balances %d, students off %d -> %s%n",
+                earned, spent, earned - spent, balance, mismatched, pointsOk ? "OK" : "FAIL");
+        System.out.printf("Check wallets: credited %.2f - applied %.2f = %.2f, balances %.2f -> %s%n",
+                credited, applied, credited - applied, wallets, walletOk ? "OK" : "FAIL");
+        System.out.printf("Check orders:  stored %d, placed %d, retries answered with another order %d -> %s%n",
+                orderCount, placed.sum(), retryMismatches.sum(), ordersOk ? "OK" : "FAIL");
+        System.out.printf("Check board:   ranked %d of %d students with points, wrong ranks %d -> %s%n",
+                board.size(), sorted.length, misranked, boardOk ? "OK" : "FAIL");
+        return pointsOk && walletOk && ordersOk && boardOk;
+    }
+
+    private static void seedMenu(MenuManager menuMgr) {
+        menuMgr.edit(b -> b
+                .put(new MenuItem("M001", "Chicken Shawarma", "Grilled chicken wrap", 75.0, "Main Course"))
+                .put(new MenuItem("M002", "Koshari Bowl", "Classic Egyptian mix", 55.0, "Main Course"))
+                .put(new MenuItem("M003", "Burger", "Juicy beef burger", 80.0, "Main Course"))
+                .put(new MenuItem("M004", "Falafel Sandwich", "Taameya with tahini", 25.0, "Main Course"))
+                .put(new MenuItem("D001", "Iced Coffee", "Cold brew", 35.0, "Drink"))
+                .put(new MenuItem("D002", "Fresh Lemonade", "Refreshing citrus", 28.0, "Drink"))
+                .put(new MenuItem("D003", "Tea", "Black tea with mint", 12.5, "Drink"))
+                .put(new MenuItem("S001", "Chocolate Muffin", "Freshly baked", 20.0, "Snack"))
+                .put(new MenuItem("S002", "Chips", "Potato chips", 13.0, "Snack"))
+                .put(new MenuItem("S003", "Brownie", "Chocolate fudge", 25.0, "Snack")));
+    }
+}
@@ -0,0 +1,8 @@
+package cafeteria;
+
+/** Receives loyalty events from {@link LoyaltyProgram}. */
+public interface LoyaltyListener {
+    void redeemed(String studentId, int pointsCost);
+    /** Called after {@code s}'s points balance changed, with that student's lock still held. */
+    default void pointsChanged(Student s) {}
+}
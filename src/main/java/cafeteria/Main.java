@@ -1,24 +1,37 @@
 package cafeteria;
 
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 public class Main {
     private static final Scanner sc = new Scanner(System.in);
+    // Picked-up orders older than this leave memory for the compressed archive
+    static final java.time.Duration ARCHIVE_AFTER = java.time.Duration.ofDays(30);
+    // Orders per page in the My Orders views
+    static final int HISTORY_PAGE = 20;
 
     public static void main(String[] args) {
         // Seed repositories and services (DIP)
-       FileStudentRepository studentRepo = new FileStudentRepository();
+        IndexedStudentRepository studentRepo = new IndexedStudentRepository();
         InMemoryMenuProvider menuProvider = new InMemoryMenuProvider();
         InMemoryOrderRepository orderRepo = new InMemoryOrderRepository("order.txt");
+        orderRepo.archiveOlderThan(ARCHIVE_AFTER);
         PointsCalculator calculator = new BasicPointsCalculator(10.0); // 1 point / EGP 10
         LoyaltyProgram loyalty = new LoyaltyProgram(calculator, studentRepo);
-        NotificationService notifications = new NotificationService();
+        AsyncNotificationDispatcher notifications = new AsyncNotificationDispatcher(AsyncNotificationDispatcher.console());
         OrderProcessor orders = new OrderProcessor(menuProvider, orderRepo, loyalty, notifications);
         MenuManager menuMgr = new MenuManager(menuProvider);
         StudentManager studentMgr = new StudentManager(studentRepo);
         ReportService reports = new ReportService(orderRepo);
+        orders.addListener(reports);
+        loyalty.addListener(reports);
+        KitchenQueue kitchen = new KitchenQueue(orders);
+        SalesCube sales = new SalesCube();
+        orders.addListener(sales);
+        Leaderboard leaderboard = new Leaderboard(loyalty, Leaderboard.FILE);
 
         seed(menuMgr);
 
@@ -30,22 +43,24 @@ public class Main {
             System.out.print("Choose: ");
             String c = sc.nextLine().trim();
             switch (c) {
-                case "1": studentFlow(studentMgr, menuMgr, orders, loyalty); break;
-                case "2": adminFlow(menuMgr, orders, reports); break;
-                case "0": System.out.println("Bye!"); return;
+                case "1": studentFlow(studentMgr, menuMgr, orders, loyalty, leaderboard); break;
+                case "2": adminFlow(menuMgr, orders, kitchen, reports, sales); break;
+                case "0": notifications.close(); studentRepo.close(); leaderboard.close(); orderRepo.close(); sales.close(); System.out.println("Bye!"); return;
                 default: System.out.println("Invalid.");
             }
         }
     }
 
     private static void seed(MenuManager menuMgr) {
-        menuMgr.addItem(new MenuItem("M001", "Chicken Shawarma", "Grilled chicken wrap", 75.0, "Main Course"));
-        menuMgr.addItem(new MenuItem("M002", "Koshari Bowl", "Classic Egyptian mix", 55.0, "Main Course"));
-        menuMgr.addItem(new MenuItem("D001", "Iced Coffee", "Cold brew", 35.0, "Drink"));
-        menuMgr.addItem(new MenuItem("S001", "Chocolate Muffin", "Freshly baked", 20.0, "Snack"));
+        menuMgr.edit(b -> b
+                .put(new MenuItem("M001", "Chicken Shawarma", "Grilled chicken wrap", 75.0, "Main Course"))
+                .put(new MenuItem("M002", "Koshari Bowl", "Classic Egyptian mix", 55.0, "Main Course"))
+                .put(new MenuItem("D001", "Iced Coffee", "Cold brew", 35.0, "Drink"))
+                .put(new MenuItem("S001", "Chocolate Muffin", "Freshly baked", 20.0, "Snack")));
     }
 
-    private static void studentFlow(StudentManager studentMgr, MenuManager menuMgr, OrderProcessor orders, LoyaltyProgram loyalty) {
+    private static void studentFlow(StudentManager studentMgr, MenuManager menuMgr, OrderProcessor orders, LoyaltyProgram loyalty,
+                                    Leaderboard leaderboard) {
         System.out.println("\n-- Student --");
         System.out.println("1) Register");
         System.out.println("2) Login");
@@ -73,7 +88,7 @@ public class Main {
         Student s = loggedIn.get();
         System.out.println("Welcome, " + s.getName() + " | Points: " + s.getPoints());
 
-        List<OrderLine> cart = new ArrayList<>();
+        Cart cart = new Cart(menuMgr.snapshot());
         while (true) {
             System.out.println("\n-- Student Menu --");
             System.out.println("1) Browse Menu");
@@ -81,25 +96,27 @@ public class Main {
             System.out.println("3) Place Order");
             System.out.println("4) Redeem Points");
             System.out.println("5) My Orders");
+            System.out.println("6) Leaderboard");
             System.out.println("0) Back");
             System.out.print("Choose: ");
             String c2 = sc.nextLine().trim();
             switch (c2) {
                 case "1":
-                    menuMgr.getMenu().forEach((id, item) -> System.out.println(item));
+                    cart.rebase(menuMgr.snapshot());
+                    cart.getMenu().getItems().forEach((id, item) -> System.out.println(item));
                     System.out.print("Enter item ID to add (or blank to stop): ");
                     String id = sc.nextLine().trim();
                     if (id.isEmpty()) break;
-                    MenuItem mi = menuMgr.findById(id).orElse(null);
-                    if (mi == null) { System.out.println("Not found."); break; }
+                    if (cart.getMenu().indexOf(id) < 0) { System.out.println("Not found."); break; }
                     System.out.print("Qty: "); int qty = Integer.parseInt(sc.nextLine());
-                    cart.add(new OrderLine(mi, qty));
+                    if (qty <= 0) { System.out.println("Invalid quantity."); break; }
+                    cart.add(id, qty);
                     System.out.println("Added.");
                     break;
                 case "2":
-                    double total = cart.stream().mapToDouble(OrderLine::lineTotal).sum();
-                    cart.forEach(System.out::println);
-                    System.out.println("Total: EGP " + total);
+                    cart.forEachLine((item, q, lineMinor) ->
+                            System.out.println(item.getName() + " x" + q + " = EGP " + Money.format(lineMinor)));
+                    System.out.println("Total: EGP " + Money.format(cart.getTotalMinor()));
                     break;
                 case "3":
                     if (cart.isEmpty()) { System.out.println("Cart empty."); break; }
@@ -125,7 +142,26 @@ public class Main {
                     }
                     break;
                 case "5":
-                    orders.ordersOf(s.getStudentId()).forEach(System.out::println);
+                    String cursor = null;
+                    do {
+                        OrderPage page = orders.history(s.getStudentId(), cursor, HISTORY_PAGE);
+                        if (cursor == null && page.getOrders().isEmpty()) System.out.println("No orders yet.");
+                        page.getOrders().forEach(System.out::println);
+                        cursor = page.getNextCursor();
+                        if (cursor == null) break;
+                        System.out.print("n) Next page  (Enter to stop): ");
+                    } while ("n".equalsIgnoreCase(sc.nextLine().trim()));
+                    break;
+                case "6":
+                    int place = 0;
+                    for (Leaderboard.Entry e : leaderboard.top(10)) {
+                        System.out.println(++place + ". " + e.getName() + " (" + e.getStudentId() + ") " + e.getPoints() + " pts");
+                    }
+                    if (place == 0) System.out.println("No points earned yet.");
+                    OptionalInt rank = leaderboard.rankOf(s.getStudentId());
+                    System.out.println(rank.isPresent()
+                            ? "You are #" + rank.getAsInt() + " of " + leaderboard.size() + " with " + s.getPoints() + " points."
+                            : "Earn points to join the leaderboard.");
                     break;
                 case "0": return;
                 default: System.out.println("Invalid.");
@@ -133,7 +169,7 @@ public class Main {
         }
     }
 
-    private static void adminFlow(MenuManager menuMgr, OrderProcessor orders, ReportService reports) {
+    private static void adminFlow(MenuManager menuMgr, OrderProcessor orders, KitchenQueue kitchen, ReportService reports, SalesCube sales) {
         System.out.print("Admin username: "); String u = sc.nextLine();
         System.out.print("Password: "); String p = sc.nextLine();
         if (!"admin".equals(u) || !"admin123".equals(p)) { System.out.println("Denied."); return; }
@@ -162,8 +198,9 @@ public class Main {
                     } else if ("e".equals(op)) {
                         System.out.print("ID to edit: "); String id = sc.nextLine();
                         menuMgr.findById(id).ifPresentOrElse(item -> {
-                            System.out.print("New name ("+item.getName()+"): "); String n = sc.nextLine(); if(!n.isEmpty()) item.setName(n);
-                            System.out.print("New price ("+item.getPrice()+"): "); String p2 = sc.nextLine(); if(!p2.isEmpty()) item.setPrice(Double.parseDouble(p2));
+                            System.out.print("New name ("+item.getName()+"): "); String n = sc.nextLine();
+                            System.out.print("New price ("+item.getPrice()+"): "); String p2 = sc.nextLine();
+                            menuMgr.updateItem(id, n.isEmpty() ? null : n, p2.isEmpty() ? null : Double.parseDouble(p2));
                             System.out.println("Updated.");
                         }, () -> System.out.println("Not found."));
                     } else if ("r".equals(op)) {
@@ -172,14 +209,13 @@ public class Main {
                     }
                     break;
                 case "2":
-                    List<Order> pend = orders.listByStatus(OrderStatus.PLACED);
-                    List<Order> pend1 = orders.listByStatus(OrderStatus.PREPARING);
-                     pend.addAll(pend1);
+                    List<Order> pend = kitchen.placed();
+                    pend.addAll(kitchen.preparing());
 
                     if (pend.isEmpty()) System.out.println("No pending.");
                     for (Order o : pend) {
                         System.out.println(o);
-                        if (pend1.contains(o)){
+                        if (o.getStatus() == OrderStatus.PREPARING){
                             System.out.println("r) Ready  (other: skip)");
                         }else {
                             System.out.println("u) Preparing  r) Ready  (other: skip)");
@@ -191,15 +227,61 @@ public class Main {
                     }
                     break;
                 case "3":
-                    System.out.println("1) Daily  2) Weekly  3) Export CSV");
+                    System.out.println("1) Daily  2) Weekly  3) Export CSV  4) Export range  5) Metrics  6) Item sales");
                     String r = sc.nextLine().trim();
                     if ("1".equals(r)) System.out.println(reports.dailySummary());
                     else if ("2".equals(r)) System.out.println(reports.weeklySummary());
                     else if ("3".equals(r)) { String path = reports.exportCsv("reports"); System.out.println("Exported: " + path); }
+                    else if ("4".equals(r)) {
+                        try {
+                            System.out.print("From (yyyy-mm-dd, blank for all): "); String f = sc.nextLine().trim();
+                            System.out.print("To (yyyy-mm-dd, blank for today): "); String t = sc.nextLine().trim();
+                            System.out.print("Format 1) CSV  2) NDJSON: "); String fmt = sc.nextLine().trim();
+                            System.out.print("Gzip? (y/n): "); boolean gz = "y".equalsIgnoreCase(sc.nextLine().trim());
+                            String path = reports.export("reports",
+                                    f.isEmpty() ? null : LocalDate.parse(f), t.isEmpty() ? null : LocalDate.parse(t),
+                                    "2".equals(fmt) ? ReportService.ExportFormat.NDJSON : ReportService.ExportFormat.CSV, gz);
+                            System.out.println("Exported: " + path);
+                        } catch (DateTimeParseException e) {
+                            System.out.println("Invalid date.");
+                        }
+                    }
+                    else if ("5".equals(r)) {
+                        System.out.print(Metrics.report());
+                        System.out.println("Dumped: " + Metrics.dump("reports/metrics_" + LocalDate.now() + ".txt"));
+                    }
+                    else if ("6".equals(r)) {
+                        try {
+                            System.out.print("From (yyyy-mm-dd, blank for a week ago): "); String f = sc.nextLine().trim();
+                            System.out.print("To (yyyy-mm-dd, blank for today): "); String t = sc.nextLine().trim();
+                            LocalDate to = t.isEmpty() ? LocalDate.now() : LocalDate.parse(t);
+                            LocalDate from = f.isEmpty() ? to.minusDays(6) : LocalDate.parse(f);
+                            itemSales(sales, from, to);
+                        } catch (DateTimeParseException e) {
+                            System.out.println("Invalid date.");
+                        }
+                    }
                     break;
                 case "0": return;
                 default: System.out.println("Invalid.");
             }
         }
     }
+
+    private static void itemSales(SalesCube sales, LocalDate from, LocalDate to) {
+        List<SalesCube.ItemSales> byItem = sales.revenueByItem(from, to);
+        if (byItem.isEmpty()) { System.out.println("No item sales " + from + ".." + to + "."); return; }
+        System.out.println("Revenue by item " + from + ".." + to + ":");
+        byItem.forEach(i -> System.out.println("  " + i));
+        System.out.println("Best sellers by hour:");
+        sales.topItemsPerHour(from, to, 3).forEach((h, top) -> System.out.println(String.format("  %02d:00  ", h)
+                + top.stream().map(i -> i.getName() + " x" + i.getQuantity()).collect(Collectors.joining(", "))));
+        System.out.println("Category mix by day:");
+        sales.categoryMix(from, to).forEach((day, mix) -> {
+            double total = mix.values().stream().mapToDouble(Double::doubleValue).sum();
+            System.out.println("  " + day + "  " + mix.entrySet().stream()
+                    .map(e -> e.getKey() + " " + String.format("%.0f%%", 100 * e.getValue() / total))
+                    .collect(Collectors.joining(", ")));
+        });
+    }
 }
@@ -3,6 +3,7 @@ package cafeteria;
 import javafx.animation.FadeTransition;
 import javafx.animation.ScaleTransition;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.geometry.*;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
@@ -20,16 +21,20 @@ import java.util.*;
 
 public class MainFX extends Application {
     // Core managers/repositories
-    private FileStudentRepository studentRepo = new FileStudentRepository();
+    private IndexedStudentRepository studentRepo = new IndexedStudentRepository();
     private InMemoryMenuProvider menuProvider = new InMemoryMenuProvider();
     InMemoryOrderRepository orderRepo = new InMemoryOrderRepository("order.txt");
     private PointsCalculator calculator = new BasicPointsCalculator(10.0);
     private LoyaltyProgram loyalty = new LoyaltyProgram(calculator, studentRepo);
-    private NotificationService notifications = new NotificationService();
+    private AsyncNotificationDispatcher notifications = new AsyncNotificationDispatcher(AsyncNotificationDispatcher.console());
     private OrderProcessor orders = new OrderProcessor(menuProvider, orderRepo, loyalty, notifications);
     private MenuManager menuMgr = new MenuManager(menuProvider);
     private StudentManager studentMgr = new StudentManager(studentRepo);
     private ReportService reports = new ReportService(orderRepo);
+    // Not shown here, but kept and saved so the console app's board stays in step with students.dat
+    private Leaderboard leaderboard = new Leaderboard(loyalty, Leaderboard.FILE);
+    private SalesCube sales = new SalesCube();
+    private KitchenQueue kitchen;
 
     private Stage mainStage;
     private Scene welcomeScene, studentLoginScene, studentMainScene, adminLoginScene, adminMainScene;
@@ -37,15 +42,22 @@ public class MainFX extends Application {
     private Student loggedInStudent = null;
 
     // For student cart logic and menu grid
-    private List<OrderLine> currentCart = new ArrayList<>();
+    private Cart currentCart = new Cart(MenuSnapshot.EMPTY);
     private GridPane menuGrid;
     private VBox cartBox;
     private Label cartTotalLabel;
     private ListView<String> myOrdersList; // FIX: make it a field
+    private Button moreOrdersBtn;
+    private String myOrdersCursor; // next page of My Orders, null when everything is shown
 
     @Override
     public void start(Stage stage) {
         mainStage = stage;
+        orderRepo.archiveOlderThan(Main.ARCHIVE_AFTER);
+        orders.addListener(reports);
+        orders.addListener(sales);
+        loyalty.addListener(reports);
+        kitchen = new KitchenQueue(orders);
         seedMenu();
 
         // Gradient background for all scenes
@@ -177,7 +189,9 @@ public class MainFX extends Application {
         VBox myOrdersBox = new VBox(12);
         myOrdersBox.setPadding(new Insets(25,10,10,10));
         myOrdersList = new ListView<>(); // FIX: assign to field
-        myOrdersBox.getChildren().add(myOrdersList);
+        moreOrdersBtn = styledBtn("Load more", "#7e57c2");
+        moreOrdersBtn.setOnAction(e -> loadOrdersPage(myOrdersList, false));
+        myOrdersBox.getChildren().addAll(myOrdersList, moreOrdersBtn);
         myOrdersTab.setContent(myOrdersBox);
 
         stuTabs.getTabs().addAll(menuTab, redeemTab, myOrdersTab);
@@ -234,6 +248,8 @@ public class MainFX extends Application {
         Button markReady = styledBtn("Set Ready", "#43a047");
         adminOrdersBox.getChildren().addAll(adminOrderList, markPreparing, markReady);
         adminOrdersTab.setContent(adminOrdersBox);
+        // New orders show up as soon as they are placed
+        kitchen.subscribe(o -> Platform.runLater(() -> refreshAdminOrders(adminOrderList)));
 
         // -- 3. Reports Tab --
         Tab adminReportTab = new Tab("Reports");
@@ -319,10 +335,7 @@ public class MainFX extends Application {
 
         // Refresh my orders
         stuTabs.getSelectionModel().selectedItemProperty().addListener((obs, old, tab) -> {
-            if (tab == myOrdersTab) {
-                myOrdersList.getItems().clear();
-                orders.ordersOf(loggedInStudent.getStudentId()).forEach(o -> myOrdersList.getItems().add(o.toString()));
-            }
+            if (tab == myOrdersTab) loadOrdersPage(myOrdersList, true);
         });
 
         // Admin login
@@ -360,8 +373,8 @@ public class MainFX extends Application {
                 d.setHeaderText("Edit: name|price");
                 d.showAndWait().ifPresent(str -> {
                     String[] arr = str.split("\\|");
-                    if (arr.length >= 1 && !arr[0].isEmpty()) item.setName(arr[0]);
-                    if (arr.length >= 2 && !arr[1].isEmpty()) item.setPrice(Double.parseDouble(arr[1]));
+                    menuMgr.updateItem(id, arr.length >= 1 && !arr[0].isEmpty() ? arr[0] : null,
+                            arr.length >= 2 && !arr[1].isEmpty() ? Double.parseDouble(arr[1]) : null);
                     refreshAdminMenu(adminMenuList);
                     refreshMenuGrid();
                 });
@@ -380,8 +393,7 @@ public class MainFX extends Application {
             if (sel == null) return;
             String id = sel.split(" ")[1];
             if (sel.startsWith("[PLACED]")) {
-                orderRepo.updateStatus(id, OrderStatus.PREPARING); // persist change
-                refreshAdminOrders(adminOrderList);
+                orders.updateStatus(id, OrderStatus.PREPARING); // persists and updates the kitchen queue
             }
         });
 
@@ -390,8 +402,7 @@ public class MainFX extends Application {
             if (sel == null) return;
             String id = sel.split(" ")[1];
             if (sel.startsWith("[PREPARING]")) {
-                orderRepo.delete(id); // completely remove
-                refreshAdminOrders(adminOrderList);
+                orders.updateStatus(id, OrderStatus.READY_FOR_PICKUP); // notifies the student, keeps history for reports
             }
         });
 
@@ -407,14 +418,15 @@ public class MainFX extends Application {
     }
 
     private void seedMenu() {
-        menuMgr.addItem(new MenuItem("M001", "Chicken Shawarma", "Grilled chicken wrap", 75.0, "Main Course"));
-        menuMgr.addItem(new MenuItem("M002", "Koshari Bowl", "Classic Egyptian mix", 55.0, "Main Course"));
-        menuMgr.addItem(new MenuItem("D001", "Iced Coffee", "Cold brew", 35.0, "Drink"));
-        menuMgr.addItem(new MenuItem("S001", "Chocolate Muffin", "Freshly baked", 20.0, "Snack"));
-        menuMgr.addItem(new MenuItem("D002", "Fresh Lemonade", "Refreshing citrus", 28.0, "Drink"));
-        menuMgr.addItem(new MenuItem("S002", "Chips", "Potato chips", 13.0, "Snack"));
-        menuMgr.addItem(new MenuItem("M003", "Burger", "Juicy beef burger", 80.0, "Main Course"));
-        menuMgr.addItem(new MenuItem("S003", "Brownie", "Chocolate fudge", 25.0, "Snack"));
+        menuMgr.edit(b -> b
+                .put(new MenuItem("M001", "Chicken Shawarma", "Grilled chicken wrap", 75.0, "Main Course"))
+                .put(new MenuItem("M002", "Koshari Bowl", "Classic Egyptian mix", 55.0, "Main Course"))
+                .put(new MenuItem("D001", "Iced Coffee", "Cold brew", 35.0, "Drink"))
+                .put(new MenuItem("S001", "Chocolate Muffin", "Freshly baked", 20.0, "Snack"))
+                .put(new MenuItem("D002", "Fresh Lemonade", "Refreshing citrus", 28.0, "Drink"))
+                .put(new MenuItem("S002", "Chips", "Potato chips", 13.0, "Snack"))
+                .put(new MenuItem("M003", "Burger", "Juicy beef burger", 80.0, "Main Course"))
+                .put(new MenuItem("S003", "Brownie", "Chocolate fudge", 25.0, "Snack")));
     }
 
     // Styled button helper
@@ -439,8 +451,9 @@ public class MainFX extends Application {
     // Refresh menu cards in columns (with animation)
     private void refreshMenuGrid() {
         menuGrid.getChildren().clear();
+        currentCart.rebase(menuMgr.snapshot()); // cards and cart use the same menu version
         int col = 0, row = 0, colsCount = 3;
-        for (MenuItem mi : menuMgr.getMenu().values()) {
+        for (MenuItem mi : currentCart.getMenu().getItems().values()) {
             StackPane card = createMenuCard(mi);
             menuGrid.add(card, col, row);
             animateCard(card, 130*row + 90*col); // Animation on load
@@ -496,7 +509,7 @@ public class MainFX extends Application {
 
         Button addBtn = styledBtn("Add to Cart", "#7e57c2");
         addBtn.setOnAction(e -> {
-            currentCart.add(new OrderLine(mi, 1));
+            currentCart.add(mi.getId(), 1);
             addToCartAnimation(mi.getName());
             refreshCart();
         });
@@ -535,25 +548,36 @@ public class MainFX extends Application {
     private void refreshCart() {
         // Remove old cart items (keep title, total, clear, place)
         cartBox.getChildren().removeIf(node -> node instanceof Label && node != cartTotalLabel && !((Label) node).getText().startsWith("Total"));
-        double total = 0.0;
-        for (OrderLine ol : currentCart) {
-            Label line = new Label(ol.getItem().getName() + " x" + ol.getQuantity() + " - EGP " + ol.lineTotal());
+        currentCart.forEachLine((item, qty, lineMinor) -> {
+            Label line = new Label(item.getName() + " x" + qty + " - EGP " + Money.format(lineMinor));
             line.setFont(Font.font("Segoe UI", 14));
             line.setTextFill(Color.web("#333"));
             line.setStyle("-fx-background-color: #fffde7cc; -fx-background-radius: 10;");
             line.setPadding(new Insets(7,7,7,7));
             cartBox.getChildren().add(cartBox.getChildren().size()-2, line);
-            total += ol.lineTotal();
-        }
-        cartTotalLabel.setText(String.format("Total: EGP %.2f", total));
+        });
+        cartTotalLabel.setText("Total: EGP " + Money.format(currentCart.getTotalMinor())); // kept incrementally by the cart
     }
 
     private void updateStudentUI(Label name, Label points, ListView<String> myOrders) {
         name.setText("Welcome, " + loggedInStudent.getName());
         points.setText("Points: " + loggedInStudent.getPoints());
         // orders
-        myOrders.getItems().clear();
-        orders.ordersOf(loggedInStudent.getStudentId()).forEach(o -> myOrders.getItems().add(o.toString()));
+        loadOrdersPage(myOrders, true);
+    }
+
+    // First page replaces the list; later pages are appended below it
+    private void loadOrdersPage(ListView<String> myOrders, boolean first) {
+        if (first) {
+            myOrders.getItems().clear();
+            myOrdersCursor = null;
+        } else if (myOrdersCursor == null) {
+            return;
+        }
+        OrderPage page = orders.history(loggedInStudent.getStudentId(), myOrdersCursor, Main.HISTORY_PAGE);
+        page.getOrders().forEach(o -> myOrders.getItems().add(o.toString()));
+        myOrdersCursor = page.getNextCursor();
+        moreOrdersBtn.setDisable(!page.hasMore());
     }
 
     private void refreshAdminMenu(ListView<String> list) {
@@ -564,15 +588,25 @@ public class MainFX extends Application {
     }
 
     private void refreshAdminOrders(ListView<String> adminOrderList) {
+        List<Order> pending = kitchen.placed();
+        pending.addAll(kitchen.preparing());
         adminOrderList.getItems().setAll(
-                orderRepo.all().stream()
-                        .filter(o -> o.getStatus() != OrderStatus.READY_FOR_PICKUP) // hide ready
+                pending.stream()
                         .map(o -> "[" + o.getStatus() + "] " + o.getOrderId() + " - " + o.getStudentId())
                         .toList()
         );
     }
 
 
+    @Override
+    public void stop() {
+        notifications.close();
+        studentRepo.close();
+        leaderboard.close();
+        orderRepo.close();
+        sales.close();
+    }
+
     public static void main(String[] args) {
         launch(args);
     }
@@ -0,0 +1,279 @@
+package cafeteria;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Startup loader for the delimited text stores. The file is memory-mapped and scanned byte by
+ * byte: no regex, no String.split, and numbers are parsed straight from the mapped bytes.
+ * Large files can be cut into newline-aligned chunks that are parsed on several cores; results
+ * always come back in file order, so journals can still be replayed sequentially.
+ */
+final class MappedLineReader {
+    /** Turns one line into a value, or null to skip it. */
+    interface LineParser<T> {
+        T parse(Fields line);
+    }
+
+    // Files smaller than this aren't worth splitting across threads
+    private static final long PARALLEL_THRESHOLD = 4L << 20;
+    // Keep each mapping well inside the 2 GB limit of a MappedByteBuffer
+    private static final long MAX_CHUNK = 1L << 30;
+
+    private MappedLineReader() {}
+
+    static <T> List<T> read(Path file, byte delimiter, boolean parallel, LineParser<T> parser) throws IOException {
+        if (!Files.exists(file)) return new ArrayList<>();
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size == 0) return new ArrayList<>();
+            int threads = parallel && size >= PARALLEL_THRESHOLD ? Runtime.getRuntime().availableProcessors() : 1;
+            long[] bounds = chunkBounds(ch, size, Math.max(threads, (int) ((size + MAX_CHUNK - 1) / MAX_CHUNK)));
+            int chunks = bounds.length - 1;
+            if (threads == 1) {
+                List<T> out = new ArrayList<>();
+                for (int i = 0; i < chunks; i++) parseChunk(ch, bounds[i], bounds[i + 1], delimiter, parser, out);
+                return out;
+            }
+            ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, chunks));
+            try {
+                List<Future<List<T>>> parts = new ArrayList<>();
+                for (int i = 0; i < chunks; i++) {
+                    long from = bounds[i], to = bounds[i + 1];
+                    parts.add(pool.submit(() -> parseChunk(ch, from, to, delimiter, parser, new ArrayList<>())));
+                }
+                List<T> out = new ArrayList<>();
+                for (Future<List<T>> f : parts) out.addAll(f.get());
+                return out;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    private static <T> List<T> parseChunk(FileChannel ch, long from, long to, byte delimiter,
+                                          LineParser<T> parser, List<T> out) throws IOException {
+        if (to <= from) return out;
+        MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+        try {
+            Fields f = new Fields(buf, delimiter);
+            int limit = buf.limit();
+            int start = 0;
+            while (start < limit) {
+                int end = start;
+                while (end < limit && buf.get(end) != '\n') end++;
+                int lineEnd = end > start && buf.get(end - 1) == '\r' ? end - 1 : end;
+                if (lineEnd > start) {
+                    f.reset(start, lineEnd);
+                    T value = parser.parse(f);
+                    if (value != null) out.add(value);
+                }
+                start = end + 1;
+            }
+        } finally {
+            unmap(buf);
+        }
+        return out;
+    }
+
+    // Splits [0, size) into roughly equal ranges that each end just after a newline
+    private static long[] chunkBounds(FileChannel ch, long size, int chunks) throws IOException {
+        long[] bounds = new long[chunks + 1];
+        ByteBuffer one = ByteBuffer.allocate(1);
+        for (int i = 1; i < chunks; i++) {
+            long pos = Math.max(bounds[i - 1], size * i / chunks);
+            while (pos < size) {
+                one.clear();
+                if (ch.read(one, pos++) <= 0 || one.get(0) == '\n') break;
+            }
+            bounds[i] = Math.min(pos, size);
+        }
+        bounds[chunks] = size;
+        return bounds;
+    }
+
+    // The mapping otherwise lives until GC, which on Windows blocks renaming the file (journal rotation)
+    private static void unmap(MappedByteBuffer buf) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field f = unsafeClass.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            Method cleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            cleaner.invoke(f.get(null), buf);
+        } catch (Throwable ignored) {
+            // not available; the GC will release it
+        }
+    }
+
+    /** Cursor over the fields of one line of a mapped buffer. */
+    static final class Fields {
+        private final ByteBuffer buf;
+        private final byte delimiter;
+        private byte[] scratch = new byte[256];
+        private int pos;
+        private int end;
+
+        Fields(ByteBuffer buf, byte delimiter) {
+            this.buf = buf;
+            this.delimiter = delimiter;
+        }
+
+        void reset(int start, int end) {
+            this.pos = start;
+            this.end = end;
+        }
+
+        /** True while there is another field to read (a trailing empty field counts). */
+        boolean hasNext() { return pos <= end; }
+
+        /** The next byte without consuming it, or -1 at the end of the line. */
+        int peek() { return pos < end ? buf.get(pos) : -1; }
+
+        /** Length of the field under the cursor. */
+        int fieldLength() { return fieldEnd() - pos; }
+
+        void skip() { pos = fieldEnd() + 1; }
+
+        String string() {
+            int e = fieldEnd();
+            int len = e - pos;
+            if (scratch.length < len) scratch = new byte[Math.max(len, scratch.length * 2)];
+            for (int i = 0; i < len; i++) scratch[i] = buf.get(pos + i);
+            pos = e + 1;
+            return new String(scratch, 0, len, StandardCharsets.UTF_8);
+        }
+
+        /** The rest of the line, delimiters included. */
+        String rest() {
+            int len = Math.max(0, end - pos);
+            if (scratch.length < len) scratch = new byte[len];
+            for (int i = 0; i < len; i++) scratch[i] = buf.get(pos + i);
+            pos = end + 1;
+            return new String(scratch, 0, len, StandardCharsets.UTF_8);
+        }
+
+        int intValue() {
+            int e = fieldEnd();
+            int i = pos;
+            boolean neg = i < e && buf.get(i) == '-';
+            if (neg || (i < e && buf.get(i) == '+')) i++;
+            if (i == e) throw new NumberFormatException("empty int field");
+            int v = 0;
+            for (; i < e; i++) {
+                int d = buf.get(i) - '0';
+                if (d < 0 || d > 9) throw new NumberFormatException("bad int field");
+                v = v * 10 + d;
+            }
+            pos = e + 1;
+            return neg ? -v : v;
+        }
+
+        /**
+         * Parses decimals such as {@code 12.5} or {@code 1.0E7} in place. Values with more than 15
+         * significant digits or a large exponent fall back to {@link Double#parseDouble}.
+         */
+        double doubleValue() {
+            int e = fieldEnd();
+            int i = pos;
+            boolean neg = i < e && buf.get(i) == '-';
+            if (neg || (i < e && buf.get(i) == '+')) i++;
+            long mantissa = 0;
+            int digits = 0, scale = 0;
+            boolean dot = false, any = false;
+            for (; i < e; i++) {
+                byte b = buf.get(i);
+                if (b >= '0' && b <= '9') {
+                    any = true;
+                    if (mantissa == 0 && b == '0') { if (dot) scale--; continue; }
+                    if (++digits > 15) return slowDouble(e);
+                    mantissa = mantissa * 10 + (b - '0');
+                    if (dot) scale--;
+                } else if (b == '.' && !dot) {
+                    dot = true;
+                } else if (b == 'E' || b == 'e') {
+                    int exp = 0;
+                    boolean expNeg = false;
+                    i++;
+                    if (i < e && (buf.get(i) == '-' || buf.get(i) == '+')) expNeg = buf.get(i++) == '-';
+                    if (i == e) return slowDouble(e);
+                    for (; i < e; i++) {
+                        int d = buf.get(i) - '0';
+                        if (d < 0 || d > 9 || exp > 1000) return slowDouble(e);
+                        exp = exp * 10 + d;
+                    }
+                    scale += expNeg ? -exp : exp;
+                    break;
+                } else {
+                    return slowDouble(e);
+                }
+            }
+            if (!any) return slowDouble(e);
+            double v;
+            if (mantissa == 0) v = 0.0;
+            else if (scale == 0) v = mantissa;
+            else if (scale > 0 && scale <= 22) v = mantissa * POW10[scale];
+            else if (scale < 0 && scale >= -22) v = mantissa / POW10[-scale];
+            else return slowDouble(e);
+            pos = e + 1;
+            return neg ? -v : v;
+        }
+
+        /** Parses {@link LocalDateTime#toString()} output (yyyy-MM-ddTHH:mm[:ss[.fraction]]) in place. */
+        LocalDateTime dateTime() {
+            int e = fieldEnd();
+            int len = e - pos;
+            if (len < 16 || buf.get(pos + 4) != '-' || buf.get(pos + 10) != 'T') return LocalDateTime.parse(string());
+            int year = digits(pos, 4), month = digits(pos + 5, 2), day = digits(pos + 8, 2);
+            int hour = digits(pos + 11, 2), minute = digits(pos + 14, 2);
+            int second = 0, nanos = 0;
+            if (len >= 19) second = digits(pos + 17, 2);
+            if (len > 20) {
+                int fracLen = len - 20;
+                nanos = digits(pos + 20, fracLen);
+                for (int k = fracLen; k < 9; k++) nanos *= 10;
+            }
+            pos = e + 1;
+            return LocalDateTime.of(year, month, day, hour, minute, second, nanos);
+        }
+
+        private int digits(int at, int count) {
+            int v = 0;
+            for (int k = 0; k < count; k++) {
+                int d = buf.get(at + k) - '0';
+                if (d < 0 || d > 9) throw new NumberFormatException("bad date field");
+                v = v * 10 + d;
+            }
+            return v;
+        }
+
+        private double slowDouble(int e) {
+            return Double.parseDouble(string());
+        }
+
+        private int fieldEnd() {
+            int i = pos;
+            while (i < end && buf.get(i) != delimiter) i++;
+            return i;
+        }
+
+        private static final double[] POW10 = new double[23];
+        static {
+            POW10[0] = 1;
+            for (int k = 1; k < POW10.length; k++) POW10[k] = POW10[k - 1] * 10;
+        }
+    }
+}
@@ -1,11 +1,12 @@
 package cafeteria;
 
-public class MenuItem {
+/** A dish on the menu. Items never change; an edit makes a new item with {@link #withName} or {@link #withPrice}. */
+public final class MenuItem {
     private final String id;
-    private String name;
-    private String description;
-    private double price;
-    private String category;
+    private final String name;
+    private final String description;
+    private final double price;
+    private final String category;
 
     public MenuItem(String id, String name, String description, double price, String category) {
         this.id = id;
@@ -19,7 +20,7 @@ public class MenuItem {
     public String getDescription() { return description; }
     public double getPrice() { return price; }
     public String getCategory() { return category; }
-    public void setName(String n) { this.name = n; }
-    public void setPrice(double p) { this.price = p; }
+    public MenuItem withName(String n) { return new MenuItem(id, n, description, price, category); }
+    public MenuItem withPrice(double p) { return new MenuItem(id, name, description, p, category); }
     @Override public String toString() { return id + " | " + name + " | EGP " + String.format("%.2f", price) + " | " + category; }
 }
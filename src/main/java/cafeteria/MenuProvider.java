@@ -2,10 +2,15 @@ package cafeteria;
 
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 public interface MenuProvider {
     Map<String, MenuItem> getMenu();
     Optional<MenuItem> findById(String id);
     void addItem(MenuItem item);
     void removeItem(String id);
+    /** The current menu version; cheap enough to call on every render. */
+    MenuSnapshot snapshot();
+    /** Applies a batch of edits and publishes them as one new version. */
+    MenuSnapshot edit(Consumer<MenuSnapshot.Builder> changes);
 }
@@ -0,0 +1,91 @@
+package cafeteria;
+
+import java.util.*;
+
+/**
+ * One published version of the menu. Snapshots and their items never change, so any number of
+ * readers can use one without locking and always see a consistent set of names and prices.
+ * Edits go through {@link Builder} and are published as a new snapshot with the next version.
+ */
+public final class MenuSnapshot {
+    static final MenuSnapshot EMPTY = new MenuSnapshot(0, new LinkedHashMap<>());
+
+    private final long version;
+    private final Map<String, MenuItem> items;
+    // Dense 0..n-1 numbering of the items for array-based carts; only valid within this snapshot
+    private final MenuItem[] byIndex;
+    private final long[] pricesMinor;
+    private final HashMap<String, Integer> indexes;
+
+    private MenuSnapshot(long version, LinkedHashMap<String, MenuItem> items) {
+        this.version = version;
+        this.items = Collections.unmodifiableMap(items);
+        this.byIndex = items.values().toArray(new MenuItem[0]);
+        this.pricesMinor = new long[byIndex.length];
+        this.indexes = new HashMap<>(byIndex.length * 2);
+        for (int i = 0; i < byIndex.length; i++) {
+            pricesMinor[i] = Money.toMinor(byIndex[i].getPrice());
+            indexes.put(byIndex[i].getId(), i);
+        }
+    }
+
+    public long getVersion() { return version; }
+
+    /** Read-only view of the items, keyed by id, in the order they were added. */
+    public Map<String, MenuItem> getItems() { return items; }
+
+    public Optional<MenuItem> find(String id) { return Optional.ofNullable(items.get(id)); }
+
+    public int size() { return items.size(); }
+
+    /** Dense index of the item in this snapshot, or -1 if it isn't on the menu. */
+    public int indexOf(String id) {
+        Integer i = indexes.get(id);
+        return i == null ? -1 : i;
+    }
+
+    public MenuItem item(int index) { return byIndex[index]; }
+
+    /** Price in piastres. */
+    public long priceMinor(int index) { return pricesMinor[index]; }
+
+    Builder toBuilder() { return new Builder(this); }
+
+    /** Collects a batch of edits on a private copy; nothing is visible until the provider publishes it. */
+    public static final class Builder {
+        private final long baseVersion;
+        private final LinkedHashMap<String, MenuItem> items;
+        private boolean changed;
+
+        private Builder(MenuSnapshot base) {
+            this.baseVersion = base.version;
+            this.items = new LinkedHashMap<>(base.items);
+        }
+
+        public Builder put(MenuItem item) {
+            items.put(item.getId(), item);
+            changed = true;
+            return this;
+        }
+
+        public Builder remove(String id) {
+            changed |= items.remove(id) != null;
+            return this;
+        }
+
+        /** Changes the name and/or price of an item; null keeps the current value. False if there is no such item. */
+        public boolean update(String id, String name, Double price) {
+            MenuItem item = items.get(id);
+            if (item == null) return false;
+            if (name != null) item = item.withName(name);
+            if (price != null) item = item.withPrice(price);
+            items.put(id, item);
+            changed = true;
+            return true;
+        }
+
+        boolean hasChanges() { return changed; }
+
+        MenuSnapshot build() { return new MenuSnapshot(baseVersion + 1, items); }
+    }
+}
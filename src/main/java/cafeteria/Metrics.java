@@ -0,0 +1,87 @@
+package cafeteria;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide latency histograms and counters for checkout and storage.
+ * Fields are static so the hot paths record straight into them without any lookup.
+ */
+public final class Metrics {
+    public static final LatencyHistogram PLACE_ORDER = new LatencyHistogram("placeOrder");
+    public static final LatencyHistogram UPDATE_STATUS = new LatencyHistogram("updateStatus");
+    public static final LatencyHistogram ORDER_SAVE = new LatencyHistogram("orders.save");
+    public static final LatencyHistogram ORDER_FIND = new LatencyHistogram("orders.findById");
+    public static final LatencyHistogram ORDER_BY_STATUS = new LatencyHistogram("orders.byStatus");
+    public static final LatencyHistogram ORDER_BY_STUDENT = new LatencyHistogram("orders.byStudent");
+    public static final LatencyHistogram STUDENT_SAVE = new LatencyHistogram("students.save");
+    public static final LatencyHistogram STUDENT_FIND = new LatencyHistogram("students.findById");
+    public static final LatencyHistogram JOURNAL_APPEND = new LatencyHistogram("orders.journalAppend");
+    public static final LatencyHistogram SNAPSHOT_WRITE = new LatencyHistogram("orders.snapshotWrite");
+    public static final LatencyHistogram STUDENT_FLUSH = new LatencyHistogram("students.flush");
+    // On a replica: how old each change from the primary was when it was applied
+    public static final LatencyHistogram REPLICA_LAG = new LatencyHistogram("replica.lag");
+    public static final LatencyHistogram SALES_QUERY = new LatencyHistogram("sales.query");
+
+    public static final LongAdder ORDERS_PLACED = new LongAdder();
+    public static final LongAdder BYTES_WRITTEN = new LongAdder();
+    // placeOrder calls answered with an existing order because the idempotency key was seen before
+    public static final LongAdder ORDER_REPLAYS = new LongAdder();
+    // IndexedStudentRepository lookups answered from memory vs. read from disk
+    public static final LongAdder STUDENT_CACHE_HITS = new LongAdder();
+    public static final LongAdder STUDENT_CACHE_MISSES = new LongAdder();
+
+    private static final List<LatencyHistogram> ALL = List.of(PLACE_ORDER, UPDATE_STATUS, ORDER_SAVE, ORDER_FIND,
+            ORDER_BY_STATUS, ORDER_BY_STUDENT, STUDENT_SAVE, STUDENT_FIND, JOURNAL_APPEND, SNAPSHOT_WRITE, STUDENT_FLUSH,
+            REPLICA_LAG, SALES_QUERY);
+
+    private static volatile long startNanos = System.nanoTime();
+
+    private Metrics() {}
+
+    /** Orders placed per second since startup or the last {@link #reset()}. */
+    public static double ordersPerSecond() {
+        double secs = (System.nanoTime() - startNanos) / 1e9;
+        return secs <= 0 ? 0 : ORDERS_PLACED.sum() / secs;
+    }
+
+    public static List<LatencyHistogram> histograms() { return ALL; }
+
+    public static void reset() {
+        ALL.forEach(LatencyHistogram::reset);
+        ORDERS_PLACED.reset();
+        BYTES_WRITTEN.reset();
+        ORDER_REPLAYS.reset();
+        STUDENT_CACHE_HITS.reset();
+        STUDENT_CACHE_MISSES.reset();
+        startNanos = System.nanoTime();
+    }
+
+    public static String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Metrics at ").append(LocalDateTime.now()).append('\n');
+        sb.append(String.format("orders placed=%d (%.1f/s), retries replayed=%d, bytes written=%d%n",
+                ORDERS_PLACED.sum(), ordersPerSecond(), ORDER_REPLAYS.sum(), BYTES_WRITTEN.sum()));
+        long hits = STUDENT_CACHE_HITS.sum(), misses = STUDENT_CACHE_MISSES.sum();
+        if (hits + misses > 0) {
+            sb.append(String.format("student cache hits=%d misses=%d (%.1f%% hit)%n", hits, misses, 100.0 * hits / (hits + misses)));
+        }
+        for (LatencyHistogram h : ALL) {
+            if (h.getCount() > 0) sb.append(h).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /** Writes {@link #report()} to {@code file} and returns its path. */
+    public static String dump(String file) {
+        try {
+            Path p = Paths.get(file);
+            if (p.getParent() != null) Files.createDirectories(p.getParent());
+            Files.writeString(p, report());
+            return p.toString();
+        } catch (IOException e) { throw new RuntimeException(e); }
+    }
+}
@@ -0,0 +1,21 @@
+package cafeteria;
+
+/**
+ * Fixed-point money: amounts are kept as whole piastres (1/100 EGP) in a {@code long}, so sums
+ * are exact. Conversions to and from {@code double} happen only at the edges (menu prices,
+ * persisted order totals).
+ */
+public final class Money {
+    private Money() {}
+
+    public static long toMinor(double egp) { return Math.round(egp * 100); }
+
+    public static double toEgp(long minor) { return minor / 100.0; }
+
+    /** {@code 1250} becomes {@code "12.50"}. */
+    public static String format(long minor) {
+        long abs = Math.abs(minor);
+        long frac = abs % 100;
+        return (minor < 0 ? "-" : "") + abs / 100 + (frac < 10 ? ".0" : ".") + frac;
+    }
+}
@@ -5,18 +5,28 @@ import java.util.*;
 import java.util.stream.Collectors;
 
 public class Order {
-    private final String orderId = UUID.randomUUID().toString();
+    private final String orderId;
     private final String studentId;
     private final List<OrderLine> lines;
     private double total;
     private int pointsEarned;
+    private double discountApplied; // EGP taken from the student's wallet
     private OrderStatus status = OrderStatus.PLACED;
-    private final LocalDateTime createdAt = LocalDateTime.now();
+    private final LocalDateTime createdAt;
+    private String idempotencyKey; // client-supplied retry key, null if none
 
     public Order(String studentId, List<OrderLine> lines) {
+        this(UUID.randomUUID().toString(), studentId, lines, LocalDateTime.now());
+    }
+    // Used when restoring persisted orders
+    Order(String orderId, String studentId, List<OrderLine> lines, LocalDateTime createdAt) {
+        this.orderId = orderId;
         this.studentId = studentId;
         this.lines = new ArrayList<>(lines);
-        this.total = lines.stream().mapToDouble(OrderLine::lineTotal).sum();
+        long minor = 0;
+        for (OrderLine l : lines) minor += l.lineTotalMinor();
+        this.total = Money.toEgp(minor);
+        this.createdAt = createdAt;
     }
     public String getOrderId() { return orderId; }
     public String getStudentId() { return studentId; }
@@ -25,9 +35,13 @@ public class Order {
     public void setTotal(double t) { this.total = t; }
     public int getPointsEarned() { return pointsEarned; }
     public void setPointsEarned(int p) { this.pointsEarned = p; }
+    public double getDiscountApplied() { return discountApplied; }
+    public void setDiscountApplied(double d) { this.discountApplied = d; }
     public OrderStatus getStatus() { return status; }
     public void setStatus(OrderStatus s) { this.status = s; }
     public LocalDateTime getCreatedAt() { return createdAt; }
+    public String getIdempotencyKey() { return idempotencyKey; }
+    void setIdempotencyKey(String key) { this.idempotencyKey = key; }
     @Override public String toString() {
         String items = lines.stream().map(l -> l.getItem().getName()+" x"+l.getQuantity()).collect(Collectors.joining(", "));
         return "["+status+"] Order "+orderId.substring(0,8)+" | Items: "+items+" | Total EGP "+String.format("%.2f",total)+" | Points "+pointsEarned+" | "+createdAt.toLocalTime();
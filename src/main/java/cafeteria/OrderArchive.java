@@ -0,0 +1,302 @@
+package cafeteria;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cold storage for finished orders: one gzip file per day ({@code orders-YYYY-MM-DD.gz}, or
+ * {@code orders-YYYY-MM-DD-n.gz} when a day is archived in several runs). Files are written
+ * once and never modified.
+ * <p>
+ * The first line of each file is a header with the day's totals and a Bloom filter of the
+ * student ids in it. Only headers are read at startup; order rows are decompressed when a query
+ * actually needs that day, and nothing decoded is kept in memory.
+ * <pre>
+ * #|orders|sales|discounts|points|bloom(base64)
+ * S|orderId|studentId|status|total|points|createdAt|discount|key|lines   as in {@link OrderRecords}
+ * </pre>
+ */
+public final class OrderArchive {
+    private static final String PREFIX = "orders-";
+    private static final String SUFFIX = ".gz";
+    private static final Comparator<Order> BY_CREATED =
+            Comparator.comparing(Order::getCreatedAt).thenComparing(Order::getOrderId);
+
+    /** Receives archived orders; may throw so exports can stream straight to a file. */
+    public interface Visitor {
+        void visit(Order o) throws IOException;
+    }
+
+    /**
+     * One immutable archive file and the summary from its header. Summaries that arrive from a
+     * shard or are computed over orders in memory have no file behind them.
+     */
+    public static final class Partition {
+        private final File file;
+        private final LocalDate day;
+        private final int orders;
+        private final double sales;
+        private final double discounts;
+        private final long points;
+        private final long[] bloom;
+
+        Partition(File file, LocalDate day, int orders, double sales, double discounts, long points, long[] bloom) {
+            this.file = file;
+            this.day = day;
+            this.orders = orders;
+            this.sales = sales;
+            this.discounts = discounts;
+            this.points = points;
+            this.bloom = bloom;
+        }
+
+        public LocalDate getDay() { return day; }
+        public int getOrders() { return orders; }
+        public double getSales() { return sales; }
+        public double getDiscounts() { return discounts; }
+        public long getPoints() { return points; }
+
+        /** False means the student has no orders in this file; true may be a false positive. */
+        boolean mightContain(String studentId) {
+            int bits = bloom.length * 64;
+            int h1 = studentId.hashCode(), h2 = mix(h1);
+            for (int k = 0; k < HASHES; k++) {
+                int bit = Math.floorMod(h1 + k * h2, bits);
+                if ((bloom[bit >>> 6] & (1L << bit)) == 0) return false;
+            }
+            return true;
+        }
+
+        void forEach(Visitor visitor) throws IOException {
+            try (BufferedReader r = open(file)) {
+                r.readLine(); // header
+                String line;
+                while ((line = r.readLine()) != null) {
+                    Order o = OrderRecords.parseOrder(line, 2);
+                    if (o != null) visitor.visit(o);
+                }
+            }
+        }
+    }
+
+    /** Per-day summaries of {@code orders}, oldest day first. */
+    static List<Partition> totals(Iterable<Order> orders) {
+        Map<LocalDate, Sum> days = new TreeMap<>();
+        for (Order o : orders) days.computeIfAbsent(o.getCreatedAt().toLocalDate(), d -> new Sum()).add(o);
+        List<Partition> result = new ArrayList<>(days.size());
+        for (Map.Entry<LocalDate, Sum> e : days.entrySet()) {
+            Sum s = e.getValue();
+            result.add(new Partition(null, e.getKey(), s.orders, s.sales, s.discounts, s.points, new long[1]));
+        }
+        return result;
+    }
+
+    private static final class Sum {
+        int orders;
+        double sales, discounts;
+        long points;
+
+        void add(Order o) {
+            orders++;
+            sales += o.getTotal();
+            discounts += o.getDiscountApplied();
+            points += o.getPointsEarned();
+        }
+    }
+
+    // With 16 bits per student the filter lets through about 0.2% of the files that don't match
+    private static final int HASHES = 4;
+    private static final int BITS_PER_KEY = 16;
+
+    private final File dir;
+    private final ConcurrentSkipListMap<LocalDate, List<Partition>> partitions = new ConcurrentSkipListMap<>();
+    // Names of the files in partitions, so refresh only reads new ones
+    private final Set<String> known = ConcurrentHashMap.newKeySet();
+
+    public OrderArchive(File dir) {
+        this.dir = dir;
+        refresh();
+    }
+
+    /** Picks up files another process has added to the directory since the last look. */
+    public synchronized void refresh() {
+        File[] files = dir.listFiles((d, name) -> name.startsWith(PREFIX) && name.endsWith(SUFFIX) && !known.contains(name));
+        if (files == null) return;
+        Arrays.sort(files);
+        for (File f : files) {
+            Partition p = readHeader(f);
+            if (p == null) continue;
+            partitions.computeIfAbsent(p.day, d -> new CopyOnWriteArrayList<>()).add(p);
+            known.add(f.getName());
+        }
+    }
+
+    /** Writes one day's orders to a new file; the file only becomes visible once it is complete. */
+    public synchronized Partition write(LocalDate day, List<Order> orders) throws IOException {
+        Files.createDirectories(dir.toPath());
+        List<Order> sorted = new ArrayList<>(orders);
+        sorted.sort(BY_CREATED);
+        Set<String> students = new HashSet<>();
+        double sales = 0, discounts = 0;
+        long points = 0;
+        for (Order o : sorted) {
+            students.add(o.getStudentId());
+            sales += o.getTotal();
+            discounts += o.getDiscountApplied();
+            points += o.getPointsEarned();
+        }
+        long[] bloom = new long[Math.max(1, (students.size() * BITS_PER_KEY + 63) / 64)];
+        for (String s : students) addToBloom(bloom, s);
+
+        File target = nextFile(day);
+        File tmp = new File(dir, target.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            Writer w = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(out, 1 << 16), StandardCharsets.UTF_8));
+            w.write("#|" + sorted.size() + "|" + sales + "|" + discounts + "|" + points + "|" + encode(bloom) + "\n");
+            for (Order o : sorted) {
+                w.write(OrderRecords.save(o));
+                w.write('\n');
+            }
+            w.close(); // finishes the gzip trailer; out is closed again harmlessly below
+        }
+        try (FileChannel ch = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE)) {
+            ch.force(true);
+        }
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        Metrics.BYTES_WRITTEN.add(target.length());
+        Partition p = new Partition(target, day, sorted.size(), sales, discounts, points, bloom);
+        known.add(target.getName());
+        partitions.computeIfAbsent(day, d -> new CopyOnWriteArrayList<>()).add(p);
+        return p;
+    }
+
+    /** True if at least one file holds orders from {@code day}. */
+    public boolean has(LocalDate day) {
+        return partitions.containsKey(day);
+    }
+
+    /** Ids of the orders archived for {@code day}, read from all of that day's files. */
+    public Set<String> orderIds(LocalDate day) throws IOException {
+        Set<String> ids = new HashSet<>();
+        for (Partition p : partitions.getOrDefault(day, List.of())) p.forEach(o -> ids.add(o.getOrderId()));
+        return ids;
+    }
+
+        /** Every archived file, oldest day first. */
+    public List<Partition> partitions() {
+        List<Partition> all = new ArrayList<>();
+        partitions.values().forEach(all::addAll);
+        return all;
+    }
+
+    /** Streams archived orders created in {@code from..to} (inclusive, null for open-ended), oldest day first. */
+    public void scan(LocalDate from, LocalDate to, Visitor visitor) throws IOException {
+        NavigableMap<LocalDate, List<Partition>> range = partitions;
+        if (from != null) range = range.tailMap(from, true);
+        if (to != null) range = range.headMap(to, true);
+        for (List<Partition> day : range.values()) {
+            for (Partition p : day) p.forEach(visitor);
+        }
+    }
+
+    /** The student's archived orders, newest first. Only files whose filter matches are opened. */
+    public List<Order> byStudent(String studentId) {
+        return byStudent(studentId, null, Integer.MAX_VALUE);
+    }
+
+    /**
+     * The student's archived orders older than {@code after} (null for all), newest first.
+     * Stops at the end of the first day that brings the result to {@code limit}, so a page
+     * only decompresses the days it needs.
+     */
+    public List<Order> byStudent(String studentId, Order after, int limit) {
+        List<Order> result = new ArrayList<>();
+        NavigableMap<LocalDate, List<Partition>> days = after == null
+                ? partitions.descendingMap()
+                : partitions.headMap(after.getCreatedAt().toLocalDate(), true).descendingMap();
+        for (List<Partition> day : days.values()) {
+            List<Order> matches = new ArrayList<>();
+            for (Partition p : day) {
+                if (!p.mightContain(studentId)) continue;
+                try {
+                    p.forEach(o -> {
+                        if (o.getStudentId().equals(studentId) && (after == null || BY_CREATED.compare(o, after) < 0)) matches.add(o);
+                    });
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            matches.sort(BY_CREATED.reversed());
+            result.addAll(matches);
+            if (result.size() >= limit) break;
+        }
+        return result;
+    }
+
+    private File nextFile(LocalDate day) {
+        File f = new File(dir, PREFIX + day + SUFFIX);
+        for (int n = 1; f.exists(); n++) f = new File(dir, PREFIX + day + "-" + n + SUFFIX);
+        return f;
+    }
+
+    private static Partition readHeader(File f) {
+        String name = f.getName();
+        try (BufferedReader r = open(f)) {
+            LocalDate day = LocalDate.parse(name.substring(PREFIX.length(), PREFIX.length() + 10));
+            String header = r.readLine();
+            if (header == null || !header.startsWith("#|")) return null;
+            String[] h = header.split("\\|");
+            return new Partition(f, day, Integer.parseInt(h[1]), Double.parseDouble(h[2]), Double.parseDouble(h[3]),
+                    Long.parseLong(h[4]), decode(h[5]));
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Skipping unreadable archive file " + f + ": " + e);
+            return null;
+        }
+    }
+
+    private static BufferedReader open(File f) throws IOException {
+        return new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new FileInputStream(f), 1 << 16), StandardCharsets.UTF_8));
+    }
+
+    private static void addToBloom(long[] bloom, String key) {
+        int bits = bloom.length * 64;
+        int h1 = key.hashCode(), h2 = mix(h1);
+        for (int k = 0; k < HASHES; k++) {
+            int bit = Math.floorMod(h1 + k * h2, bits);
+            bloom[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    // Second hash for double hashing, derived from the first (murmur3 finalizer)
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h | 1;
+    }
+
+    private static String encode(long[] bloom) {
+        java.nio.ByteBuffer buf = java.nio.ByteBuffer.allocate(bloom.length * 8);
+        for (long w : bloom) buf.putLong(w);
+        return Base64.getEncoder().encodeToString(buf.array());
+    }
+
+    private static long[] decode(String s) {
+        java.nio.ByteBuffer buf = java.nio.ByteBuffer.wrap(Base64.getDecoder().decode(s));
+        long[] bloom = new long[buf.remaining() / 8];
+        for (int i = 0; i < bloom.length; i++) bloom[i] = buf.getLong();
+        return bloom;
+    }
+}
@@ -3,9 +3,14 @@ package cafeteria;
 public class OrderLine {
     private final MenuItem item;
     private final int quantity;
-    public OrderLine(MenuItem item, int quantity) { this.item = item; this.quantity = quantity; }
+    // Price at the time the line was created, so later menu edits don't change old orders
+    private final long unitPriceMinor;
+    public OrderLine(MenuItem item, int quantity) { this(item, quantity, Money.toMinor(item.getPrice())); }
+    OrderLine(MenuItem item, int quantity, long unitPriceMinor) { this.item = item; this.quantity = quantity; this.unitPriceMinor = unitPriceMinor; }
     public MenuItem getItem() { return item; }
     public int getQuantity() { return quantity; }
-    public double lineTotal() { return item.getPrice() * quantity; }
-    @Override public String toString() { return item.getName() + " x" + quantity + " = EGP " + String.format("%.2f", lineTotal()); }
+    public double getUnitPrice() { return Money.toEgp(unitPriceMinor); }
+    public long lineTotalMinor() { return unitPriceMinor * quantity; }
+    public double lineTotal() { return Money.toEgp(lineTotalMinor()); }
+    @Override public String toString() { return item.getName() + " x" + quantity + " = EGP " + Money.format(lineTotalMinor()); }
 }
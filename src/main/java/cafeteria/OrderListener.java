@@ -0,0 +1,7 @@
+package cafeteria;
+
+/** Receives order events from {@link OrderProcessor} after they have been saved. */
+public interface OrderListener {
+    void orderPlaced(Order o);
+    default void statusChanged(Order o, OrderStatus previous) {}
+}
@@ -0,0 +1,50 @@
+package cafeteria;
+
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * One page of a student's order history, newest first. Pass {@link #getNextCursor()} back to
+ * {@link OrderRepository#byStudent(String, String, int)} for the following page; it is null on
+ * the last page. Cursors point at the last order returned, so new orders placed while paging
+ * don't shift later pages.
+ */
+public final class OrderPage {
+    static final Comparator<Order> NEWEST_FIRST =
+            Comparator.comparing(Order::getCreatedAt).thenComparing(Order::getOrderId).reversed();
+
+    private final List<Order> orders;
+    private final String nextCursor;
+
+    OrderPage(List<Order> orders, String nextCursor) {
+        this.orders = Collections.unmodifiableList(orders);
+        this.nextCursor = nextCursor;
+    }
+
+    public List<Order> getOrders() { return orders; }
+    public String getNextCursor() { return nextCursor; }
+    public boolean hasMore() { return nextCursor != null; }
+
+    /** Cuts a newest-first list holding up to {@code limit + 1} orders into a page. */
+    static OrderPage of(List<Order> newestFirst, int limit) {
+        if (newestFirst.size() <= limit) return new OrderPage(newestFirst, null);
+        List<Order> page = new ArrayList<>(newestFirst.subList(0, limit));
+        return new OrderPage(page, cursorOf(page.get(limit - 1)));
+    }
+
+    static String cursorOf(Order o) {
+        return o.getCreatedAt() + "|" + o.getOrderId();
+    }
+
+    /** A stand-in order that sorts exactly where the cursor points; null for the first page. */
+    static Order position(String cursor) {
+        if (cursor == null || cursor.isEmpty()) return null;
+        int sep = cursor.indexOf('|');
+        if (sep < 0) throw new IllegalArgumentException("Bad cursor: " + cursor);
+        try {
+            return new Order(cursor.substring(sep + 1), "", Collections.emptyList(), LocalDateTime.parse(cursor.substring(0, sep)));
+        } catch (java.time.format.DateTimeParseException e) {
+            throw new IllegalArgumentException("Bad cursor: " + cursor);
+        }
+    }
+}
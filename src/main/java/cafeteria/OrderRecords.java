@@ -0,0 +1,236 @@
+package cafeteria;
+
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Line format shared by the order journal and its snapshots:
+ * <pre>
+ * S|orderId|studentId|status|total|points|createdAt|discount|key|lines   save (full order)
+ * U|orderId|status                                                       status change
+ * D|orderId                                                              delete
+ * </pre>
+ * Rows without a type prefix (orderId|studentId|status|total|points) come from the
+ * original full-file format and are read as saves. {@code key} is the idempotency key, empty
+ * when the client sent none; older save records stop before it. {@code lines} is
+ * {@code itemId:quantity:unitPriceMinor:category:name} per line, comma separated, with
+ * {@code % | , :} and line breaks in the text fields written as {@code %XX}; records from before
+ * lines were stored stop before it and load with no lines. Rows from before createdAt was
+ * stored get {@link #UNKNOWN_CREATED_AT}, so every replay puts them on the same (long past) day.
+ */
+final class OrderRecords {
+    static final char SEP = '|';
+    static final char SAVE = 'S';
+    static final char STATUS = 'U';
+    static final char DELETE = 'D';
+    static final LocalDateTime UNKNOWN_CREATED_AT = LocalDateTime.of(1970, 1, 1, 0, 0);
+
+    private OrderRecords() {}
+
+    static String save(Order o) {
+        return SAVE + "|" +
+                o.getOrderId() + "|" +
+                o.getStudentId() + "|" +
+                o.getStatus() + "|" +
+                o.getTotal() + "|" +
+                o.getPointsEarned() + "|" +
+                o.getCreatedAt() + "|" +
+                o.getDiscountApplied() + "|" +
+                (o.getIdempotencyKey() == null ? "" : o.getIdempotencyKey()) + "|" +
+                lines(o.getLines());
+    }
+
+    private static String lines(List<OrderLine> lines) {
+        StringBuilder sb = new StringBuilder();
+        for (OrderLine l : lines) {
+            if (sb.length() > 0) sb.append(',');
+            MenuItem item = l.getItem();
+            escape(sb, item.getId());
+            sb.append(':').append(l.getQuantity()).append(':').append(Money.toMinor(l.getUnitPrice())).append(':');
+            escape(sb, item.getCategory());
+            sb.append(':');
+            escape(sb, item.getName());
+        }
+        return sb.toString();
+    }
+
+    private static List<OrderLine> parseLines(String s) {
+        if (s.isEmpty()) return Collections.emptyList();
+        List<OrderLine> lines = new ArrayList<>();
+        for (String line : s.split(",")) {
+            String[] f = line.split(":", -1);
+            if (f.length != 5) throw new IllegalArgumentException("Bad order line: " + line);
+            MenuItem item = new MenuItem(unescape(f[0]), unescape(f[4]), "", Money.toEgp(Long.parseLong(f[2])), unescape(f[3]));
+            lines.add(new OrderLine(item, Integer.parseInt(f[1]), Long.parseLong(f[2])));
+        }
+        return lines;
+    }
+
+    private static void escape(StringBuilder sb, String s) {
+        if (s == null) return;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '%' || c == SEP || c == ',' || c == ':' || c == '\n' || c == '\r') sb.append('%').append(String.format("%02X", (int) c));
+            else sb.append(c);
+        }
+    }
+
+    private static String unescape(String s) {
+        if (s.indexOf('%') < 0) return s;
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '%') {
+                sb.append((char) Integer.parseInt(s.substring(i + 1, i + 3), 16));
+                i += 2;
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    static String status(String orderId, OrderStatus status) {
+        return STATUS + "|" + orderId + "|" + status;
+    }
+
+    static String delete(String orderId) {
+        return DELETE + "|" + orderId;
+    }
+
+    /** One parsed journal line, applied to the order map later and in file order. */
+    static final class Record {
+        final char type;
+        final String orderId;
+        final Order order;          // SAVE
+        final OrderStatus status;   // STATUS
+
+        Record(char type, String orderId, Order order, OrderStatus status) {
+            this.type = type;
+            this.orderId = orderId;
+            this.order = order;
+            this.status = status;
+        }
+
+        void applyTo(Map<String, Order> map) {
+            switch (type) {
+                case SAVE:
+                    map.put(orderId, order);
+                    break;
+                case STATUS: {
+                    Order o = map.get(orderId);
+                    if (o != null) o.setStatus(status);
+                    break;
+                }
+                case DELETE:
+                    map.remove(orderId);
+                    break;
+                default:
+            }
+        }
+    }
+
+    /** Parses one line from a mapped journal; returns null for lines it can't read. */
+    static Record parse(MappedLineReader.Fields f) {
+        try {
+            if (f.fieldLength() != 1) return saved(parseOrder(f)); // untyped row from the original format
+            char type = (char) f.peek();
+            f.skip();
+            switch (type) {
+                case SAVE:
+                    return saved(parseOrder(f));
+                case STATUS: {
+                    String id = f.string();
+                    return new Record(STATUS, id, null, OrderStatus.valueOf(f.string()));
+                }
+                case DELETE:
+                    return new Record(DELETE, f.string(), null, null);
+                default:
+                    return null;
+            }
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /** Parses one typed record received as a string, as replicas do; null if it can't be read. */
+    static Record parse(String line) {
+        try {
+            if (line.length() < 2 || line.charAt(1) != SEP) return null;
+            switch (line.charAt(0)) {
+                case SAVE:
+                    return saved(parseOrder(line, 2));
+                case STATUS: {
+                    int bar = line.indexOf(SEP, 2);
+                    return new Record(STATUS, line.substring(2, bar), null, OrderStatus.valueOf(line.substring(bar + 1)));
+                }
+                case DELETE:
+                    return new Record(DELETE, line.substring(2), null, null);
+                default:
+                    return null;
+            }
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static Record saved(Order o) {
+        return o == null ? null : new Record(SAVE, o.getOrderId(), o, null);
+    }
+
+    private static Order parseOrder(MappedLineReader.Fields f) {
+        String id = f.string();
+        String studentId = f.string();
+        OrderStatus status = OrderStatus.valueOf(f.string());
+        double total = f.doubleValue();
+        int points = f.intValue();
+        // older records stop after points or createdAt
+        LocalDateTime createdAt = f.hasNext() ? f.dateTime() : UNKNOWN_CREATED_AT;
+        double discount = f.hasNext() ? f.doubleValue() : 0.0;
+        String key = f.hasNext() ? f.string() : "";
+        List<OrderLine> lines = f.hasNext() ? parseLines(f.string()) : Collections.emptyList();
+
+        Order o = new Order(id, studentId, lines, createdAt);
+        o.setStatus(status);
+        o.setTotal(total);
+        o.setPointsEarned(points);
+        o.setDiscountApplied(discount);
+        if (!key.isEmpty()) o.setIdempotencyKey(key);
+        return o;
+    }
+
+    /** Parses the order fields starting at {@code from}; null if any are missing or malformed. */
+    static Order parseOrder(String line, int from) {
+        try {
+            int a = line.indexOf(SEP, from);
+            int b = a < 0 ? -1 : line.indexOf(SEP, a + 1);
+            int c = b < 0 ? -1 : line.indexOf(SEP, b + 1);
+            int d = c < 0 ? -1 : line.indexOf(SEP, c + 1);
+            if (d < 0) return null;
+            int e = line.indexOf(SEP, d + 1);
+            int f = e < 0 ? -1 : line.indexOf(SEP, e + 1);
+            int g = f < 0 ? -1 : line.indexOf(SEP, f + 1);
+            int h = g < 0 ? -1 : line.indexOf(SEP, g + 1);
+            String id = line.substring(from, a);
+            String studentId = line.substring(a + 1, b);
+            OrderStatus status = OrderStatus.valueOf(line.substring(b + 1, c));
+            double total = Double.parseDouble(line.substring(c + 1, d));
+            int points = Integer.parseInt(line.substring(d + 1, e < 0 ? line.length() : e));
+            // older records stop after points or createdAt
+            LocalDateTime createdAt = e < 0 ? UNKNOWN_CREATED_AT : LocalDateTime.parse(line.substring(e + 1, f < 0 ? line.length() : f));
+            double discount = f < 0 ? 0.0 : Double.parseDouble(line.substring(f + 1, g < 0 ? line.length() : g));
+            String key = g < 0 ? "" : line.substring(g + 1, h < 0 ? line.length() : h);
+            List<OrderLine> lines = h < 0 ? Collections.emptyList() : parseLines(line.substring(h + 1));
+
+            Order o = new Order(id, studentId, lines, createdAt);
+            o.setStatus(status);
+            o.setTotal(total);
+            o.setPointsEarned(points);
+            o.setDiscountApplied(discount);
+            if (!key.isEmpty()) o.setIdempotencyKey(key);
+            return o;
+        } catch (RuntimeException malformed) {
+            return null;
+        }
+    }
+}
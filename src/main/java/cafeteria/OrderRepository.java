@@ -1,13 +1,69 @@
 package cafeteria;
 
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDate;
 import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 public interface OrderRepository {
     void save(Order o);
+    /** The student's whole history, newest first. Prefer the paged overload for display. */
     List<Order> byStudent(String studentId);
     List<Order> byStatus(OrderStatus status);
     Optional<Order> findById(String orderId);
+    /** Orders held in memory (recent and active ones); see {@link #scan} for full history. */
     Collection<Order> all();
+    /** Sets the order's status in one step; returns the status it replaced, or empty if there is no such order. */
+    Optional<OrderStatus> updateStatus(String orderId, OrderStatus status);
+    void delete(String orderId);
+
+    /** Streams every order created in {@code from..to} (inclusive, null for open-ended), archived ones included. */
+    default void scan(LocalDate from, LocalDate to, OrderArchive.Visitor visitor) throws IOException {
+        for (Order o : all()) {
+            LocalDate d = o.getCreatedAt().toLocalDate();
+            if ((from != null && d.isBefore(from)) || (to != null && d.isAfter(to))) continue;
+            visitor.visit(o);
+        }
+    }
+
+    /**
+     * Up to {@code limit} of the student's orders, newest first, starting after {@code cursor}
+     * (null for the newest). This default pages over the full list; repositories with an
+     * ordered index override it to read only the page.
+     */
+    default OrderPage byStudent(String studentId, String cursor, int limit) {
+        Order after = OrderPage.position(cursor);
+        List<Order> slice = new java.util.ArrayList<>();
+        for (Order o : byStudent(studentId)) {
+            if (after != null && OrderPage.NEWEST_FIRST.compare(o, after) <= 0) continue;
+            slice.add(o);
+            if (slice.size() > limit) break;
+        }
+        return OrderPage.of(slice, limit);
+    }
+
+    /** The order a student placed with this idempotency key, if it is still held in memory. */
+    default Optional<Order> findByIdempotencyKey(String studentId, String key) {
+        for (Order o : all()) {
+            if (key.equals(o.getIdempotencyKey()) && studentId.equals(o.getStudentId())) return Optional.of(o);
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Day totals of the orders held in memory, worked out where the orders are so a remote
+     * shard answers with one line per day instead of every order.
+     */
+    default List<OrderArchive.Partition> dayTotals() { return OrderArchive.totals(all()); }
+
+    /** Day totals of orders that were moved out of memory into the archive. */
+    default List<OrderArchive.Partition> archived() { return List.of(); }
+
+    /** Moves picked-up orders older than {@code age} out of memory; returns how many moved. */
+    default int archiveOlderThan(Duration age) { return 0; }
+
+    /** Flushes pending writes and releases files or connections. */
+    default void close() {}
 }
@@ -0,0 +1,344 @@
+package cafeteria;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Crash checks for the stores that write their own files. Each check makes changes, "crashes"
+ * by opening a fresh instance on the same files without closing the old one (or by leaving the
+ * files as a crash at that point would), and compares what comes back with what was written.
+ * Runs in a temporary directory; exits with status 1 if any check fails.
+ */
+public class RecoveryTest {
+    private static int failures;
+
+    public static void main(String[] args) throws IOException {
+        Path dir = Files.createTempDirectory("cafeteria-recovery");
+        try {
+            journalReplay(dir.resolve("replay"));
+            snapshotAndSegment(dir.resolve("snapshot"));
+            studentTornTail(dir.resolve("torn"));
+            indexGrowAndCompact(dir.resolve("index"));
+            archiveThenDelete(dir.resolve("archive"));
+            staleLeaderboard(dir.resolve("leaderboard"));
+        } finally {
+            try (var paths = Files.walk(dir)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+        System.out.println(failures == 0 ? "Recovery checks passed." : failures + " recovery checks failed.");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    // Saves, status changes and deletes, reopened every few changes, then a record cut short
+    private static void journalReplay(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        String file = dir.resolve("order.txt").toString();
+        InMemoryOrderRepository repo = new InMemoryOrderRepository(file, true, Integer.MAX_VALUE);
+        Map<String, String> expected = new TreeMap<>();
+        List<String> ids = new ArrayList<>();
+        Random rnd = new Random(1);
+        for (int i = 1; i <= 200; i++) {
+            Order o = order("S" + (i % 9), LocalDateTime.now().minusMinutes(i));
+            if (i % 5 == 0) o.setIdempotencyKey("key-" + i);
+            repo.save(o);
+            ids.add(o.getOrderId());
+            expected.put(o.getOrderId(), OrderRecords.save(o));
+            if (i % 3 == 0) {
+                String id = ids.get(rnd.nextInt(ids.size()));
+                if (expected.containsKey(id)) {
+                    repo.updateStatus(id, OrderStatus.PREPARING);
+                    expected.put(id, OrderRecords.save(repo.findById(id).get()));
+                }
+            }
+            if (i % 7 == 0) {
+                String id = ids.get(rnd.nextInt(ids.size()));
+                repo.delete(id);
+                expected.remove(id);
+            }
+            if (i % 25 == 0) {
+                repo = new InMemoryOrderRepository(file, true, Integer.MAX_VALUE);
+                check("journal replay after " + i + " changes", expected, orders(repo));
+            }
+        }
+
+        // A crash part way through an append leaves a line with no newline
+        appendBytes(file, "S|torn|S1|PLA".getBytes());
+        repo = new InMemoryOrderRepository(file, true, Integer.MAX_VALUE);
+        check("journal with a torn last record", expected, orders(repo));
+        Order after = order("S1", LocalDateTime.now());
+        repo.save(after);
+        expected.put(after.getOrderId(), OrderRecords.save(after));
+        repo = new InMemoryOrderRepository(file, true, Integer.MAX_VALUE);
+        check("journal appended to after a torn record", expected, orders(repo));
+
+        // Cut just after createdAt the record still parses, as an order with no discount or key
+        Order cut = order("S2", LocalDateTime.now());
+        cut.setDiscountApplied(5.0);
+        String record = OrderRecords.save(cut);
+        appendBytes(file, record.substring(0, record.lastIndexOf('|', record.lastIndexOf('|') - 1)).getBytes());
+        repo = new InMemoryOrderRepository(file, true, Integer.MAX_VALUE);
+        check("journal with a torn record that still parses", expected, orders(repo));
+        repo = new InMemoryOrderRepository(file, true, Integer.MAX_VALUE);
+        check("reopen after dropping a parseable torn record", expected, orders(repo));
+
+        // A row from the original format has no createdAt; replays must not move it to today
+        appendBytes(file, "legacy-1|S3|READY_FOR_PICKUP|12.0|1\n".getBytes());
+        for (int i = 0; i < 2; i++) {
+            repo = new InMemoryOrderRepository(file, true, Integer.MAX_VALUE);
+            check("legacy row keeps a fixed createdAt (open " + (i + 1) + ")", OrderRecords.UNKNOWN_CREATED_AT,
+                    repo.findById("legacy-1").map(Order::getCreatedAt).orElse(null));
+        }
+        repo.close();
+    }
+
+    // Background compaction, then the files a crash at each point of a compaction leaves behind
+    private static void snapshotAndSegment(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        String file = dir.resolve("order.txt").toString();
+        File segment = new File(file + ".1");
+        File snapshot = new File(file + ".snapshot");
+        InMemoryOrderRepository repo = new InMemoryOrderRepository(file, true, 50);
+        Map<String, String> expected = new TreeMap<>();
+        for (int i = 0; i < 120; i++) {
+            Order o = order("S" + (i % 4), LocalDateTime.now().minusMinutes(i));
+            repo.save(o);
+            if (i % 2 == 0) repo.updateStatus(o.getOrderId(), OrderStatus.READY_FOR_PICKUP);
+            expected.put(o.getOrderId(), OrderRecords.save(o));
+        }
+        repo.close();
+        check("compaction leaves a snapshot and no segment", true, snapshot.exists() && !segment.exists());
+        // From here on nothing compacts in the background, so the test decides what is on disk
+        repo = new InMemoryOrderRepository(file, true, Integer.MAX_VALUE);
+        check("snapshot plus journal tail", expected, orders(repo));
+
+        // Rotated but no snapshot written yet: the segment and an unfinished snapshot.tmp remain
+        for (int i = 0; i < 10; i++) {
+            Order o = order("S9", LocalDateTime.now());
+            repo.save(o);
+            expected.put(o.getOrderId(), OrderRecords.save(o));
+        }
+        Files.move(Paths.get(file), segment.toPath());
+        Files.write(Paths.get(file + ".snapshot.tmp"), "S|half".getBytes());
+        repo = new InMemoryOrderRepository(file, true, Integer.MAX_VALUE);
+        check("snapshot plus leftover segment", expected, orders(repo));
+        check("leftover segment folded into the snapshot", false, segment.exists());
+        repo.close();
+        repo = new InMemoryOrderRepository(file, true, Integer.MAX_VALUE);
+        check("reopen after segment recovery", expected, orders(repo));
+        repo.close();
+    }
+
+    // A student record cut short is dropped from the data file and the store keeps working
+    private static void studentTornTail(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        String file = dir.resolve("students.dat").toString();
+        IndexedStudentRepository repo = students(file);
+        Map<String, String> expected = new TreeMap<>();
+        for (int i = 0; i < 50; i++) {
+            Student s = new Student("Student " + i, "T" + i, "hash" + i);
+            s.addPoints(i);
+            repo.save(s);
+            expected.put(s.getStudentId(), state(s));
+        }
+        long length = new File(file).length();
+        ByteBuffer torn = ByteBuffer.allocate(14).putInt(200).put("Student ;".getBytes());
+        appendBytes(file, torn.array());
+        repo = students(file);
+        check("students after a torn record", expected, students(repo, expected.keySet()));
+        check("torn record truncated", length, new File(file).length());
+        Student s = new Student("Late", "T-late", "hash");
+        repo.save(s);
+        expected.put(s.getStudentId(), state(s));
+        repo = students(file);
+        check("students appended after truncation", expected, students(repo, expected.keySet()));
+        repo.close();
+    }
+
+    // Enough students to double the index twice and enough updates to compact the data file
+    private static void indexGrowAndCompact(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        String file = dir.resolve("students.dat").toString();
+        File idx = new File(file + ".idx");
+        IndexedStudentRepository repo = students(file);
+        long emptyIndex = idx.length();
+        Map<String, String> expected = new TreeMap<>();
+        for (int i = 0; i < 3000; i++) {
+            Student s = new Student("Student " + i, "G" + i, "hash" + i);
+            repo.save(s);
+            expected.put(s.getStudentId(), state(s));
+            if ((i + 1) % 500 == 0) {
+                repo = students(file);
+                check("index after " + (i + 1) + " students", expected, students(repo, expected.keySet()));
+            }
+        }
+        check("index grew", true, idx.length() >= 4 * emptyIndex);
+
+        long before = new File(file).length();
+        for (int round = 1; round <= 3; round++) {
+            for (String id : expected.keySet()) {
+                Student s = repo.findById(id).get();
+                s.addPoints(round);
+                expected.put(id, state(s));
+            }
+            repo = students(file);
+            check("students after update round " + round, expected, students(repo, expected.keySet()));
+        }
+        check("data file compacted", true, new File(file).length() < 3 * before);
+
+        // A crash while growing or compacting clears the index magic; compaction may also leave its .tmp
+        try (RandomAccessFile raf = new RandomAccessFile(idx, "rw")) {
+            raf.writeInt(0);
+        }
+        Files.write(Paths.get(file + ".tmp"), new byte[]{0, 0, 0, 9, 'x'});
+        repo = students(file);
+        check("index rebuilt from the data file", expected, students(repo, expected.keySet()));
+        repo.close();
+    }
+
+    // Archive file written, deletes never journaled: orders must come back once, not twice
+    private static void archiveThenDelete(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        String file = dir.resolve("order.txt").toString();
+        InMemoryOrderRepository repo = new InMemoryOrderRepository(file);
+        Map<String, String> expected = new TreeMap<>();
+        List<Order> old = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            Order o = order("S" + (i % 5), LocalDateTime.now().minusDays(i < 10 ? 40 : 1).minusMinutes(i));
+            o.setStatus(OrderStatus.READY_FOR_PICKUP);
+            repo.save(o);
+            expected.put(o.getOrderId(), OrderRecords.save(o));
+            if (i < 10) old.add(o);
+        }
+        new OrderArchive(new File(file + ".archive")).write(old.get(0).getCreatedAt().toLocalDate(), old);
+        repo = new InMemoryOrderRepository(file);
+        check("orders archived but not deleted", expected, orders(repo));
+        check("nothing left to archive again", 0, repo.archiveOlderThan(Duration.ofDays(30)));
+        check("one archive file", 1, repo.archived().size());
+        repo.close();
+
+        repo = new InMemoryOrderRepository(file);
+        check("orders after a clean archive run", expected, orders(repo));
+        repo.close();
+    }
+
+    // A saved board must not be trusted once the students changed without it
+    private static void staleLeaderboard(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        String file = dir.resolve("students.dat").toString();
+        String saved = dir.resolve(Leaderboard.FILE).toString();
+        IndexedStudentRepository repo = students(file);
+        for (int i = 0; i < 20; i++) {
+            Student s = new Student("Student " + i, "L" + i, "hash" + i);
+            s.addPoints(i + 1);
+            repo.save(s);
+        }
+        Leaderboard board = new Leaderboard(loyalty(repo), saved);
+        repo.close();
+        board.close();
+
+        // changed by a process without a board
+        repo = students(file);
+        repo.findById("L0").get().addPoints(100);
+        repo.close();
+        repo = students(file);
+        board = new Leaderboard(loyalty(repo), saved);
+        check("board after a change made without it", ranking(repo), ranking(board));
+        repo.close();
+        board.close();
+
+        // changed by a process that crashed before closing its board
+        repo = students(file);
+        LoyaltyProgram loyalty = loyalty(repo);
+        board = new Leaderboard(loyalty, saved);
+        loyalty.awardPoints("L1", 500);
+        repo.flush();
+        repo = students(file);
+        board = new Leaderboard(loyalty(repo), saved);
+        check("board after a crash without closing it", ranking(repo), ranking(board));
+        repo.close();
+        board.close();
+
+        repo = students(file);
+        board = new Leaderboard(loyalty(repo), saved);
+        check("board reloaded from a clean close", ranking(repo), ranking(board));
+        repo.close();
+    }
+
+    // ---------- helpers ----------
+
+    private static Order order(String studentId, LocalDateTime createdAt) {
+        Order o = new Order(UUID.randomUUID().toString(), studentId, Collections.emptyList(), createdAt);
+        o.setTotal(10 + createdAt.getMinute());
+        o.setPointsEarned(1);
+        return o;
+    }
+
+    // Every order the repository can see, memory and archive; a duplicate id fails the comparison
+    private static Map<String, String> orders(InMemoryOrderRepository repo) throws IOException {
+        Map<String, String> seen = new TreeMap<>();
+        repo.scan(null, null, o -> {
+            if (seen.put(o.getOrderId(), OrderRecords.save(o)) != null) seen.put(o.getOrderId(), "duplicate");
+        });
+        return seen;
+    }
+
+    private static IndexedStudentRepository students(String file) {
+        return new IndexedStudentRepository(file, null, FileStudentRepository.Durability.FLUSH, 100);
+    }
+
+    private static LoyaltyProgram loyalty(StudentRepository repo) {
+        return new LoyaltyProgram(new BasicPointsCalculator(10.0), repo);
+    }
+
+    private static List<String> ranking(StudentRepository repo) {
+        List<String> out = new ArrayList<>();
+        repo.all().stream().filter(s -> s.getPoints() > 0)
+                .sorted(Comparator.comparingInt(Student::getPoints).reversed().thenComparing(Student::getStudentId))
+                .forEach(s -> out.add(s.getStudentId() + "=" + s.getPoints()));
+        return out;
+    }
+
+    private static List<String> ranking(Leaderboard board) {
+        List<String> out = new ArrayList<>();
+        for (Leaderboard.Entry e : board.top(Integer.MAX_VALUE)) out.add(e.getStudentId() + "=" + e.getPoints());
+        return out;
+    }
+
+    private static Map<String, String> students(IndexedStudentRepository repo, Set<String> ids) {
+        Map<String, String> found = new TreeMap<>();
+        for (String id : ids) repo.findById(id).ifPresent(s -> found.put(id, state(s)));
+        if (repo.size() != ids.size()) found.put("size", Integer.toString(repo.size()));
+        return found;
+    }
+
+    private static String state(Student s) {
+        return FileStudentRepository.row(s);
+    }
+
+    private static void appendBytes(String file, byte[] bytes) throws IOException {
+        try (FileChannel ch = FileChannel.open(Paths.get(file), StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ch.write(ByteBuffer.wrap(bytes));
+        }
+    }
+
+    private static void check(String what, Object expected, Object actual) {
+        if (expected.equals(actual)) {
+            System.out.println("OK   " + what);
+        } else {
+            failures++;
+            System.out.println("FAIL " + what + ": expected " + summary(expected) + ", got " + summary(actual));
+        }
+    }
+
+    private static String summary(Object value) {
+        if (!(value instanceof Map)) return String.valueOf(value);
+        Map<?, ?> m = (Map<?, ?>) value;
+        return m.size() + " entries" + (m.containsValue("duplicate") ? " with duplicates" : "");
+    }
+}
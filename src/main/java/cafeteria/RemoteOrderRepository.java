@@ -0,0 +1,200 @@
+package cafeteria;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * An order shard in another process, reached through {@link ShardServer}'s line protocol.
+ * Orders come back as fresh copies without their lines, the same as orders reloaded from disk.
+ * Archived partitions carry only their day totals.
+ * <p>
+ * Connections are pooled, one per concurrent caller. A request that fails on a pooled
+ * connection is retried once on a new one; every command is safe to repeat. Each new
+ * connection first authenticates with the shard servers' shared key.
+ * Network failures surface as {@link UncheckedIOException}.
+ */
+public class RemoteOrderRepository implements OrderRepository {
+    private static final int TIMEOUT_MS = 10_000;
+
+    private final String host;
+    private final int port;
+    private final String key;
+    private final Queue<Connection> idle = new ConcurrentLinkedQueue<>();
+
+    private static final class Connection {
+        final Socket socket;
+        final BufferedReader in;
+        final Writer out;
+
+        Connection(String host, int port, String key) throws IOException {
+            socket = new Socket(host, port);
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(TIMEOUT_MS);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            out.write("AUTH|" + key + "\n");
+            out.flush();
+            String reply = in.readLine();
+            if (!"OK|0".equals(reply)) {
+                close();
+                throw new IOException("Shard " + host + ":" + port + " refused the key");
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    public RemoteOrderRepository(String host, int port, String key) {
+        this.host = host;
+        this.port = port;
+        this.key = key;
+    }
+
+    @Override
+    public void save(Order o) {
+        call("SAVE|" + OrderRecords.save(o), null);
+    }
+
+    @Override
+    public List<Order> byStudent(String studentId) {
+        return orders("STUDENT|" + studentId);
+    }
+
+    @Override
+    public OrderPage byStudent(String studentId, String cursor, int limit) {
+        List<Order> page = new ArrayList<>();
+        String[] head = call("PAGE|" + limit + "|" + studentId + "|" + (cursor == null ? "" : cursor), in -> page.addAll(read(in)));
+        String next = head.length > 2 && !head[2].isEmpty() ? head[2] + "|" + head[3] : null;
+        return new OrderPage(page, next);
+    }
+
+    @Override
+    public List<Order> byStatus(OrderStatus status) {
+        return orders("STATUS|" + status.name());
+    }
+
+    @Override
+    public Optional<Order> findById(String orderId) {
+        return orders("FIND|" + orderId).stream().findFirst();
+    }
+
+    @Override
+    public Optional<Order> findByIdempotencyKey(String studentId, String key) {
+        return orders("KEY|" + studentId + "|" + key).stream().findFirst();
+    }
+
+    @Override
+    public Collection<Order> all() {
+        return orders("ALL");
+    }
+
+    @Override
+    public void scan(LocalDate from, LocalDate to, OrderArchive.Visitor visitor) throws IOException {
+        for (Order o : orders("SCAN|" + (from == null ? "" : from) + "|" + (to == null ? "" : to))) visitor.visit(o);
+    }
+
+    @Override
+    public Optional<OrderStatus> updateStatus(String orderId, OrderStatus status) {
+        List<OrderStatus> previous = new ArrayList<>(1);
+        call("UPDATE|" + orderId + "|" + status.name(), in -> {
+            for (String line : in) previous.add(OrderStatus.valueOf(line));
+        });
+        return previous.stream().findFirst();
+    }
+
+    @Override
+    public void delete(String orderId) {
+        call("DELETE|" + orderId, null);
+    }
+
+    @Override
+    public List<OrderArchive.Partition> dayTotals() {
+        return days("TOTALS");
+    }
+
+    @Override
+    public List<OrderArchive.Partition> archived() {
+        return days("ARCHIVED");
+    }
+
+    @Override
+    public int archiveOlderThan(Duration age) {
+        return Integer.parseInt(call("ARCHIVE|" + age.getSeconds(), null)[2]);
+    }
+
+    @Override
+    public void close() {
+        Connection c;
+        while ((c = idle.poll()) != null) c.close();
+    }
+
+    private List<Order> orders(String request) {
+        List<Order> result = new ArrayList<>();
+        call(request, lines -> result.addAll(read(lines)));
+        return result;
+    }
+
+    private List<OrderArchive.Partition> days(String request) {
+        List<OrderArchive.Partition> parts = new ArrayList<>();
+        call(request, in -> {
+            for (String line : in) {
+                String[] f = line.split("\\|");
+                parts.add(new OrderArchive.Partition(null, LocalDate.parse(f[0]), Integer.parseInt(f[1]),
+                        Double.parseDouble(f[2]), Double.parseDouble(f[3]), Long.parseLong(f[4]), new long[1]));
+            }
+        });
+        return parts;
+    }
+
+    private static List<Order> read(List<String> lines) {
+        List<Order> result = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            Order o = OrderRecords.parseOrder(line, 2);
+            if (o != null) result.add(o);
+        }
+        return result;
+    }
+
+    // Sends one request and returns the status line's fields; the n lines after it go to body
+    private String[] call(String request, Consumer<List<String>> body) {
+        Connection c = idle.poll();
+        boolean pooled = c != null;
+        while (true) {
+            try {
+                if (c == null) c = new Connection(host, port, key);
+                c.out.write(request);
+                c.out.write('\n');
+                c.out.flush();
+                String status = c.in.readLine();
+                if (status == null) throw new EOFException("Shard " + host + ":" + port + " closed the connection");
+                String[] head = status.split("\\|");
+                if (!"OK".equals(head[0])) {
+                    idle.add(c);
+                    throw new IllegalStateException("Shard " + host + ":" + port + ": " + status.substring(status.indexOf('|') + 1));
+                }
+                int n = Integer.parseInt(head[1]);
+                List<String> lines = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) lines.add(c.in.readLine());
+                idle.add(c);
+                if (body != null) body.accept(lines);
+                return head;
+            } catch (IOException e) {
+                if (c != null) c.close();
+                c = null;
+                if (!pooled) throw new UncheckedIOException(e);
+                pooled = false; // the pooled connection may have gone stale; try once on a new one
+            }
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package cafeteria;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Read-only copy of a primary's orders and students, kept current from its
+ * {@link ReplicationLog}. Reports, exports and order history can run here without touching the
+ * primary's locks. The replica keeps its own files in a work directory and reads archived days
+ * straight from the primary's archive directory, whose files never change once written.
+ * <p>
+ * {@link #lagMillis()} is how old the newest change applied here was on the primary's clock;
+ * while the primary is idle its heartbeats keep this under {@link ReplicationLog#HEARTBEAT_MS}
+ * plus transit time. If the connection drops the follower reconnects and resumes where it stopped.
+ *
+ * <pre>java -cp out cafeteria.ReplicaFollower host:port [httpPort=8081] [archive=order.txt.archive] [dir=replica]</pre>
+ */
+public class ReplicaFollower implements AutoCloseable {
+    private static final long RETRY_MS = 1000;
+
+    private final String host;
+    private final int port;
+    private final String key;
+    private final InMemoryOrderRepository orders;
+    private final FileStudentRepository students;
+    private final OrderRepository readOnly;
+    private volatile ReportService reports;
+    private volatile boolean closed;
+    private volatile Socket socket;
+    private final Thread applier;
+
+    // position in the primary's log
+    private volatile String epoch = "";
+    private volatile long appliedSeq;
+    private volatile long primaryMillis;
+    private volatile boolean synced;
+
+    /** @param key the primary's replication key (its admin key) */
+    public ReplicaFollower(String host, int port, String key, File workDir, File archiveDir) {
+        this.host = host;
+        this.port = port;
+        this.key = key;
+        workDir.mkdirs();
+        // a fresh start always begins with a full copy, so leftovers from an earlier run are dropped
+        File[] old = workDir.listFiles((d, name) -> name.startsWith("order.txt") || name.startsWith("students.txt"));
+        if (old != null) for (File f : old) f.delete();
+        this.orders = new InMemoryOrderRepository(new File(workDir, "order.txt").getPath(), true, 100_000, archiveDir);
+        this.students = new FileStudentRepository(new File(workDir, "students.txt").getPath(), FileStudentRepository.Durability.GROUP);
+        this.readOnly = new ReadOnlyOrders(orders);
+        this.reports = new ReportService(readOnly);
+        this.applier = new Thread(this::run, "replica-applier");
+        applier.setDaemon(true);
+    }
+
+    public void start() { applier.start(); }
+
+    /** Orders as of the last applied change; writes throw UnsupportedOperationException. */
+    public OrderRepository orders() { return readOnly; }
+
+    public StudentRepository students() { return students; }
+
+    public ReportService reports() { return reports; }
+
+    public long getAppliedSeq() { return appliedSeq; }
+
+    /** False until the first full copy has been applied. */
+    public boolean isSynced() { return synced; }
+
+    public long lagMillis() {
+        long at = primaryMillis;
+        return at == 0 ? -1 : Math.max(0, System.currentTimeMillis() - at);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        Socket s = socket;
+        if (s != null) {
+            try {
+                s.close();
+            } catch (IOException ignored) {
+            }
+        }
+        orders.close();
+        students.close();
+    }
+
+    private void run() {
+        while (!closed) {
+            try (Socket s = new Socket(host, port)) {
+                socket = s;
+                s.setTcpNoDelay(true);
+                BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8), 1 << 16);
+                Writer out = new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8);
+                out.write("FOLLOW|" + epoch + "|" + appliedSeq + "|" + key + "\n");
+                out.flush();
+                String hello = in.readLine();
+                if ("DENIED".equals(hello)) throw new IOException("Primary refused the replication key");
+                if (hello == null || !hello.startsWith("EPOCH|")) throw new EOFException("No handshake from primary");
+                String primaryEpoch = hello.substring(6);
+                String line;
+                while ((line = in.readLine()) != null) apply(line, primaryEpoch);
+            } catch (IOException e) {
+                if (closed) return;
+                System.err.println("Replica lost primary " + host + ":" + port + " (" + e.getMessage() + "), retrying");
+            }
+            try {
+                Thread.sleep(RETRY_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void apply(String line, String primaryEpoch) {
+        int a = line.indexOf('|');
+        int b = line.indexOf('|', a + 1);
+        long seq = Long.parseLong(line.substring(0, a));
+        long millis = Long.parseLong(line.substring(a + 1, b));
+        char kind = line.charAt(b + 1);
+        String payload = line.substring(b + 3);
+        switch (kind) {
+            case 'O': {
+                OrderRecords.Record r = OrderRecords.parse(payload);
+                if (r == null) break;
+                if (r.type == OrderRecords.SAVE) {
+                    boolean isNew = !orders.findById(r.orderId).isPresent();
+                    orders.save(r.order);
+                    if (isNew && synced) reports.orderPlaced(r.order);
+                } else if (r.type == OrderRecords.STATUS) {
+                    orders.updateStatus(r.orderId, r.status);
+                } else {
+                    orders.delete(r.orderId);
+                }
+                break;
+            }
+            case 'T': students.applyRow(payload); break;
+            case 'A': orders.refreshArchive(); break;
+            case 'B': {
+                // a full copy replaces whatever this replica held
+                synced = false;
+                epoch = ""; // if the copy is cut short, ask for a new one
+                for (Order o : new ArrayList<>(orders.all())) orders.delete(o.getOrderId());
+                orders.refreshArchive();
+                break;
+            }
+            case 'E': {
+                reports = new ReportService(readOnly);
+                synced = true;
+                epoch = primaryEpoch;
+                break;
+            }
+            default: break; // H: nothing to apply
+        }
+        appliedSeq = seq;
+        primaryMillis = millis;
+        if (synced) Metrics.REPLICA_LAG.record(Math.max(0, System.currentTimeMillis() - millis) * 1_000_000L);
+    }
+
+    // Queries pass through; the replica only changes through the log
+    private static final class ReadOnlyOrders implements OrderRepository {
+        private final OrderRepository repo;
+
+        ReadOnlyOrders(OrderRepository repo) { this.repo = repo; }
+
+        @Override public List<Order> byStudent(String studentId) { return repo.byStudent(studentId); }
+        @Override public OrderPage byStudent(String studentId, String cursor, int limit) { return repo.byStudent(studentId, cursor, limit); }
+        @Override public List<Order> byStatus(OrderStatus status) { return repo.byStatus(status); }
+        @Override public Optional<Order> findById(String orderId) { return repo.findById(orderId); }
+        @Override public Optional<Order> findByIdempotencyKey(String studentId, String key) { return repo.findByIdempotencyKey(studentId, key); }
+        @Override public Collection<Order> all() { return Collections.unmodifiableCollection(repo.all()); }
+        @Override public void scan(LocalDate from, LocalDate to, OrderArchive.Visitor visitor) throws IOException { repo.scan(from, to, visitor); }
+        @Override public List<OrderArchive.Partition> dayTotals() { return repo.dayTotals(); }
+        @Override public List<OrderArchive.Partition> archived() { return repo.archived(); }
+
+        @Override public void save(Order o) { throw new UnsupportedOperationException("Read-only replica"); }
+        @Override public Optional<OrderStatus> updateStatus(String orderId, OrderStatus status) { throw new UnsupportedOperationException("Read-only replica"); }
+        @Override public void delete(String orderId) { throw new UnsupportedOperationException("Read-only replica"); }
+        @Override public int archiveOlderThan(Duration age) { throw new UnsupportedOperationException("Read-only replica"); }
+    }
+
+    // ---------- standalone reporting process ----------
+
+    /**
+     * Serves, for staff with {@code X-Admin-Key}:
+     * <pre>
+     * GET /replication                         applied seq, lag
+     * GET /reports/daily | /reports/weekly | /reports?from=&amp;to=
+     * GET /orders?studentId=&amp;[cursor]&amp;[limit]  order history page
+     * GET /export?[from]&amp;[to]&amp;[format=csv|ndjson]   writes a file under exports/, returns its path
+     * </pre>
+     * Listens on loopback unless {@code bind=} names an address; CAFETERIA_ADMIN_KEY must be set.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args[0].lastIndexOf(':') < 0) {
+            System.out.println("Usage: java cafeteria.ReplicaFollower host:port [httpPort=8081] [archive=order.txt.archive] [dir=replica] [bind=127.0.0.1]");
+            return;
+        }
+        Map<String, String> opts = new HashMap<>();
+        for (int i = 1; i < args.length; i++) {
+            int eq = args[i].indexOf('=');
+            if (eq > 0) opts.put(args[i].substring(0, eq), args[i].substring(eq + 1));
+        }
+        int colon = args[0].lastIndexOf(':');
+        String key = ApiServer.requireAdminKey();
+        InetAddress bind = opts.containsKey("bind") ? InetAddress.getByName(opts.get("bind")) : InetAddress.getLoopbackAddress();
+        ReplicaFollower replica = new ReplicaFollower(args[0].substring(0, colon), Integer.parseInt(args[0].substring(colon + 1)), key,
+                new File(opts.getOrDefault("dir", "replica")), new File(opts.getOrDefault("archive", "order.txt.archive")));
+        HttpServer http = HttpServer.create(new InetSocketAddress(bind, Integer.parseInt(opts.getOrDefault("httpPort", "8081"))), 64);
+        http.setExecutor(ApiServer.requestExecutor());
+        http.createContext("/", ex -> replica.serve(ex, key));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            http.stop(1);
+            replica.close();
+        }, "replica-shutdown"));
+        replica.start();
+        http.start();
+        System.out.println("Replica of " + args[0] + " serving reports on " + bind.getHostAddress() + ":" + http.getAddress().getPort());
+    }
+
+    private void serve(HttpExchange ex, String adminKey) throws IOException {
+        int status = 200;
+        String body;
+        try {
+            Map<String, String> q = query(ex.getRequestURI().getRawQuery());
+            String path = ex.getRequestURI().getPath();
+            if (!"GET".equals(ex.getRequestMethod())) {
+                status = 405;
+                body = "{\"error\":\"Read-only replica; use GET.\"}";
+            } else if (!HashUtil.secretEquals(adminKey, ex.getRequestHeaders().getFirst("X-Admin-Key"))) {
+                status = 403;
+                body = "{\"error\":\"Denied.\"}";
+            } else if (path.equals("/replication")) {
+                body = "{\"synced\":" + synced + ",\"appliedSeq\":" + appliedSeq + ",\"lagMillis\":" + lagMillis() + "}";
+            } else if (path.startsWith("/reports")) {
+                LocalDate today = LocalDate.now();
+                LocalDate from = path.equals("/reports/daily") ? today
+                        : path.equals("/reports/weekly") ? today.minusDays(6) : LocalDate.parse(q.getOrDefault("from", today.toString()));
+                LocalDate to = q.containsKey("to") ? LocalDate.parse(q.get("to")) : today;
+                ReportService.DayTotals t = reports.summary(from, to);
+                body = "{\"from\":\"" + from + "\",\"to\":\"" + to + "\",\"orders\":" + t.getOrders()
+                        + ",\"sales\":" + t.getSales() + ",\"discounts\":" + t.getDiscounts()
+                        + ",\"points\":" + t.getPoints() + ",\"lagMillis\":" + lagMillis() + "}";
+            } else if (path.equals("/orders") && q.containsKey("studentId")) {
+                int limit = Math.min(100, Integer.parseInt(q.getOrDefault("limit", "20")));
+                OrderPage page = readOnly.byStudent(q.get("studentId"), q.get("cursor"), limit);
+                StringBuilder sb = new StringBuilder("{\"orders\":[");
+                for (int i = 0; i < page.getOrders().size(); i++) {
+                    if (i > 0) sb.append(',');
+                    ApiServer.orderJson(sb, page.getOrders().get(i));
+                }
+                sb.append("],\"nextCursor\":");
+                if (page.hasMore()) ApiServer.str(sb, page.getNextCursor());
+                else sb.append("null");
+                body = sb.append('}').toString();
+            } else if (path.equals("/export")) {
+                ReportService.ExportFormat format = "ndjson".equalsIgnoreCase(q.get("format"))
+                        ? ReportService.ExportFormat.NDJSON : ReportService.ExportFormat.CSV;
+                String file = reports.export("exports", q.containsKey("from") ? LocalDate.parse(q.get("from")) : null,
+                        q.containsKey("to") ? LocalDate.parse(q.get("to")) : null, format, false);
+                StringBuilder sb = new StringBuilder("{\"file\":");
+                ApiServer.str(sb, file);
+                body = sb.append('}').toString();
+            } else {
+                status = 404;
+                body = "{\"error\":\"Not found.\"}";
+            }
+        } catch (RuntimeException e) {
+            status = 400;
+            StringBuilder sb = new StringBuilder("{\"error\":");
+            ApiServer.str(sb, String.valueOf(e.getMessage()));
+            body = sb.append('}').toString();
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        ex.sendResponseHeaders(status, bytes.length);
+        try (OutputStream os = ex.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+
+    private static Map<String, String> query(String raw) {
+        Map<String, String> q = new HashMap<>();
+        if (raw == null) return q;
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) q.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                    URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+        }
+        return q;
+    }
+}
@@ -0,0 +1,185 @@
+package cafeteria;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Change feed of a primary's order and student stores, streamed to {@link ReplicaFollower}s
+ * over a local socket. The repositories append here after every change they make: order
+ * journal records as they are, and a student's file row when it is flushed. Each change gets
+ * the next sequence number and the primary's clock time.
+ * <pre>
+ * seq|millis|O|S|orderId|...   order journal record (S, U or D)
+ * seq|millis|T|name;id;...     student row
+ * seq|millis|A|                new archive files; re-read the archive directory
+ * seq|millis|H|                heartbeat, sent when idle so followers can measure lag
+ * seq|millis|B|  ...  seq|millis|E|   full copy of both stores as of seq
+ * </pre>
+ * A follower connects with {@code FOLLOW|epoch|seq|key} naming the last change it applied and
+ * the shared key; a wrong key is answered with {@code DENIED} and the connection closed. If this
+ * log started after that (another epoch) or has already dropped it from its ring, the follower
+ * gets a full copy first. Records are idempotent, so the copy can be read from the live stores
+ * while they change: everything changed after the copy's seq is sent again after it.
+ * The log listens on the loopback interface only, since the stream holds every password hash.
+ */
+public class ReplicationLog implements AutoCloseable {
+    private static final int DEFAULT_CAPACITY = 1 << 16;
+    static final long HEARTBEAT_MS = 200;
+
+    private final String epoch = UUID.randomUUID().toString();
+    private final String key;
+    private final InMemoryOrderRepository orders;
+    private final StudentRepository students;
+    // The last capacity records; seq n lives at n % capacity (guarded by this)
+    private final String[] ring;
+    private long seq;
+    private final ServerSocket socket;
+    private final ExecutorService senders;
+    private volatile boolean closed;
+
+    /** @param key followers must send this in their handshake */
+    public ReplicationLog(int port, InMemoryOrderRepository orders, StudentRepository students, String key) throws IOException {
+        this(port, orders, students, key, DEFAULT_CAPACITY);
+    }
+
+    public ReplicationLog(int port, InMemoryOrderRepository orders, StudentRepository students, String key,
+                          int capacity) throws IOException {
+        this.key = key;
+        this.orders = orders;
+        this.students = students;
+        this.ring = new String[capacity];
+        this.socket = new ServerSocket();
+        socket.setReuseAddress(true); // a restarted primary can take its port back right away
+        socket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        this.senders = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "replication-sender");
+            t.setDaemon(true);
+            return t;
+        });
+        orders.setReplicationLog(this);
+        attach(students, this);
+        Thread acceptor = new Thread(this::acceptLoop, "replication-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int getPort() { return socket.getLocalPort(); }
+
+    public synchronized long getSeq() { return seq; }
+
+    /** Adds one change; called by the repositories while they hold their own lock. */
+    synchronized void append(char kind, String payload) {
+        seq++;
+        ring[(int) (seq % ring.length)] = seq + "|" + System.currentTimeMillis() + "|" + kind + "|" + payload;
+        notifyAll();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        orders.setReplicationLog(null);
+        attach(students, null);
+        try {
+            socket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        senders.shutdownNow();
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    private static void attach(StudentRepository students, ReplicationLog log) {
+        if (students instanceof FileStudentRepository) ((FileStudentRepository) students).setReplicationLog(log);
+        else if (students instanceof IndexedStudentRepository) ((IndexedStudentRepository) students).setReplicationLog(log);
+        else throw new IllegalArgumentException("Can't replicate " + students.getClass().getSimpleName());
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket s = socket.accept();
+                s.setTcpNoDelay(true);
+                senders.execute(() -> follow(s));
+            } catch (IOException e) {
+                if (!closed) e.printStackTrace();
+            }
+        }
+    }
+
+    private void follow(Socket s) {
+        try (s;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8), 1 << 16)) {
+            String hello = in.readLine();
+            if (hello == null || !hello.startsWith("FOLLOW|")) return;
+            String[] f = hello.split("\\|", 4);
+            if (f.length < 4 || !HashUtil.secretEquals(key, f[3])) {
+                out.write("DENIED\n");
+                return;
+            }
+            long sent = epoch.equals(f[1]) ? Long.parseLong(f[2]) : -1;
+            out.write("EPOCH|" + epoch + "\n");
+            List<String> batch = new ArrayList<>();
+            while (!closed) {
+                long from;
+                synchronized (this) {
+                    if (sent >= 0 && sent == seq) {
+                        wait(HEARTBEAT_MS);
+                        if (sent == seq) {
+                            batch.add(seq + "|" + System.currentTimeMillis() + "|H|");
+                        }
+                    }
+                    from = sent + 1;
+                    // the follower is new, from another epoch, or so far behind its next record was overwritten
+                    if (sent < 0 || sent > seq || seq - from >= ring.length) from = -1;
+                    else for (long n = from; n <= seq; n++) batch.add(ring[(int) (n % ring.length)]);
+                    if (from >= 0 && !batch.isEmpty()) sent = Math.max(sent, seq);
+                }
+                if (from < 0) {
+                    sent = sendCopy(out);
+                    batch.clear();
+                    continue;
+                }
+                for (String line : batch) {
+                    out.write(line);
+                    out.write('\n');
+                }
+                batch.clear();
+                out.flush();
+            }
+        } catch (IOException e) {
+            // follower went away
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Both stores take their own monitor while they change and append, so holding both here
+    // means no change is half way between being made and being numbered
+    private long sendCopy(Writer out) throws IOException {
+        long at;
+        synchronized (orders) {
+            synchronized (students) {
+                at = getSeq();
+            }
+        }
+        String prefix = at + "|" + System.currentTimeMillis() + "|";
+        out.write(prefix + "B|\n");
+        for (Order o : new ArrayList<>(orders.all())) out.write(prefix + "O|" + OrderRecords.save(o) + "\n");
+        for (Student st : new ArrayList<>(students.all())) out.write(prefix + "T|" + FileStudentRepository.row(st) + "\n");
+        out.write(prefix + "E|\n");
+        out.flush();
+        return at;
+    }
+}
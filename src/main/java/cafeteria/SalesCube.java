@@ -0,0 +1,372 @@
+package cafeteria;
+
+import java.io.*;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+
+/**
+ * Item-level sales kept column by column for staffing and stock questions that
+ * {@link ReportService}'s day totals can't answer: which items sell at which hours, how the
+ * category mix moves from day to day, what each item earned over a range. Every order line
+ * becomes one row of item, category, hour, quantity and revenue, stored in fixed-size chunks of
+ * primitive arrays. A query is a tight loop over the few arrays it needs, skipping chunks whose
+ * hour range misses the query, so years of sales stay cheap to scan.
+ *
+ * <p>The cube appends its rows to its own column files and reloads them on startup rather than
+ * rebuilding from the order journal; only orders placed while a cube was listening are counted.
+ * Revenue is at menu price, before wallet discounts. Register with
+ * {@link OrderProcessor#addListener}.
+ */
+public class SalesCube implements OrderListener, AutoCloseable {
+    /** Quantity and revenue for one menu item over a query's range. */
+    public static final class ItemSales {
+        private final String itemId;
+        private final String name;
+        private final String category;
+        private final long quantity;
+        private final long revenueMinor;
+
+        ItemSales(String itemId, String name, String category, long quantity, long revenueMinor) {
+            this.itemId = itemId;
+            this.name = name;
+            this.category = category;
+            this.quantity = quantity;
+            this.revenueMinor = revenueMinor;
+        }
+
+        public String getItemId() { return itemId; }
+        public String getName() { return name; }
+        public String getCategory() { return category; }
+        public long getQuantity() { return quantity; }
+        public long getRevenueMinor() { return revenueMinor; }
+        public double getRevenue() { return Money.toEgp(revenueMinor); }
+
+        @Override public String toString() {
+            return itemId + " " + name + " x" + quantity + " = EGP " + Money.format(revenueMinor);
+        }
+    }
+
+    private static final int CHUNK = 1 << 14;
+    // File records: a dictionary entry precedes the first row that uses its item code
+    private static final byte ITEM = 'I';
+    private static final byte ROW = 'R';
+    private static final int ROW_BYTES = 1 + 4 + 4 + 4 + 8;
+
+    private static final class Chunk {
+        final int[] item = new int[CHUNK];
+        final int[] category = new int[CHUNK];
+        final int[] hour = new int[CHUNK];      // hours since 1970-01-01T00:00, cafeteria local time
+        final int[] quantity = new int[CHUNK];
+        final long[] revenue = new long[CHUNK]; // minor units
+        int minHour = Integer.MAX_VALUE;
+        int maxHour = Integer.MIN_VALUE;
+    }
+
+    private final File file;
+    // Rows below this count are complete; appends fill the arrays first, then publish the count,
+    // so queries read without locking
+    private volatile int rows;
+    private volatile Chunk[] chunks = new Chunk[0];
+    // Dictionaries (guarded by this); an item code is one item id in one category
+    private final Map<String, Integer> itemCodes = new HashMap<>();
+    private final List<String> itemIds = new ArrayList<>();
+    private final List<String> itemNames = new ArrayList<>();
+    private final List<Integer> itemCategory = new ArrayList<>();
+    private final Map<String, Integer> categoryCodes = new HashMap<>();
+    private final List<String> categories = new ArrayList<>();
+    private DataOutputStream out;
+
+    public SalesCube() {
+        this("sales.cube");
+    }
+
+    public SalesCube(String filename) {
+        this.file = new File(filename);
+        load();
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), 1 << 16));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void orderPlaced(Order o) {
+        append(o);
+    }
+
+    /** Number of rows (order lines) in the cube. */
+    public int size() {
+        return rows;
+    }
+
+    /** Quantity and revenue per item for orders placed {@code from..to} inclusive, highest revenue first. */
+    public List<ItemSales> revenueByItem(LocalDate from, LocalDate to) {
+        long t0 = System.nanoTime();
+        int n = rows;
+        Chunk[] cs = chunks;
+        int items = itemCount();
+        long[] qty = new long[items];
+        long[] rev = new long[items];
+        int lo = hourOf(from), hi = hourOf(to.plusDays(1));
+        for (int c = 0; c * CHUNK < n; c++) {
+            Chunk ch = cs[c];
+            int len = Math.min(CHUNK, n - c * CHUNK);
+            if (ch.maxHour < lo || ch.minHour >= hi) continue;
+            int[] item = ch.item, hour = ch.hour, q = ch.quantity;
+            long[] r = ch.revenue;
+            if (ch.minHour >= lo && ch.maxHour < hi) {
+                // the whole chunk is in range: no per-row test
+                for (int i = 0; i < len; i++) {
+                    qty[item[i]] += q[i];
+                    rev[item[i]] += r[i];
+                }
+            } else {
+                for (int i = 0; i < len; i++) {
+                    if (hour[i] < lo || hour[i] >= hi) continue;
+                    qty[item[i]] += q[i];
+                    rev[item[i]] += r[i];
+                }
+            }
+        }
+        List<ItemSales> out = new ArrayList<>();
+        for (int code = 0; code < items; code++) {
+            if (qty[code] != 0 || rev[code] != 0) out.add(sales(code, qty[code], rev[code]));
+        }
+        out.sort(Comparator.comparingLong(ItemSales::getRevenueMinor).reversed());
+        Metrics.SALES_QUERY.recordSince(t0);
+        return out;
+    }
+
+    /**
+     * For each hour of the day (0-23) that had sales in {@code from..to}, the {@code limit} items
+     * sold most often in that hour across all those days, best first.
+     */
+    public SortedMap<Integer, List<ItemSales>> topItemsPerHour(LocalDate from, LocalDate to, int limit) {
+        long t0 = System.nanoTime();
+        int n = rows;
+        Chunk[] cs = chunks;
+        int items = itemCount();
+        // one slot per (hour of day, item)
+        long[] qty = new long[24 * items];
+        long[] rev = new long[24 * items];
+        int lo = hourOf(from), hi = hourOf(to.plusDays(1));
+        for (int c = 0; c * CHUNK < n; c++) {
+            Chunk ch = cs[c];
+            int len = Math.min(CHUNK, n - c * CHUNK);
+            if (ch.maxHour < lo || ch.minHour >= hi) continue;
+            int[] item = ch.item, hour = ch.hour, q = ch.quantity;
+            long[] r = ch.revenue;
+            for (int i = 0; i < len; i++) {
+                int h = hour[i];
+                if (h < lo || h >= hi) continue;
+                int slot = (h % 24) * items + item[i];
+                qty[slot] += q[i];
+                rev[slot] += r[i];
+            }
+        }
+        SortedMap<Integer, List<ItemSales>> out = new TreeMap<>();
+        for (int h = 0; h < 24; h++) {
+            List<ItemSales> sold = new ArrayList<>();
+            for (int code = 0; code < items; code++) {
+                int slot = h * items + code;
+                if (qty[slot] > 0) sold.add(sales(code, qty[slot], rev[slot]));
+            }
+            if (sold.isEmpty()) continue;
+            sold.sort(Comparator.comparingLong(ItemSales::getQuantity).reversed());
+            out.put(h, sold.subList(0, Math.min(limit, sold.size())));
+        }
+        Metrics.SALES_QUERY.recordSince(t0);
+        return out;
+    }
+
+    /** Revenue (EGP) per category for each day in {@code from..to} that had sales. */
+    public SortedMap<LocalDate, Map<String, Double>> categoryMix(LocalDate from, LocalDate to) {
+        long t0 = System.nanoTime();
+        int n = rows;
+        Chunk[] cs = chunks;
+        int cats = categoryCount();
+        int lo = hourOf(from), hi = hourOf(to.plusDays(1));
+        int days = Math.max(0, (hi - lo) / 24);
+        // one slot per (day in range, category)
+        long[] rev = new long[days * cats];
+        for (int c = 0; c * CHUNK < n; c++) {
+            Chunk ch = cs[c];
+            int len = Math.min(CHUNK, n - c * CHUNK);
+            if (ch.maxHour < lo || ch.minHour >= hi) continue;
+            int[] category = ch.category, hour = ch.hour;
+            long[] r = ch.revenue;
+            for (int i = 0; i < len; i++) {
+                int h = hour[i];
+                if (h < lo || h >= hi) continue;
+                rev[((h - lo) / 24) * cats + category[i]] += r[i];
+            }
+        }
+        SortedMap<LocalDate, Map<String, Double>> out = new TreeMap<>();
+        List<String> names;
+        synchronized (this) {
+            names = new ArrayList<>(categories.subList(0, cats));
+        }
+        for (int d = 0; d < days; d++) {
+            Map<String, Double> mix = null;
+            for (int cat = 0; cat < cats; cat++) {
+                long r = rev[d * cats + cat];
+                if (r == 0) continue;
+                if (mix == null) mix = new TreeMap<>();
+                mix.put(names.get(cat), Money.toEgp(r));
+            }
+            if (mix != null) out.put(from.plusDays(d), mix);
+        }
+        Metrics.SALES_QUERY.recordSince(t0);
+        return out;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (out == null) return;
+        try {
+            out.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        out = null;
+    }
+
+    // ---------- writing ----------
+
+    private synchronized void append(Order o) {
+        if (o.getLines().isEmpty()) return;
+        int hour = hourOf(o.getCreatedAt());
+        try {
+            for (OrderLine l : o.getLines()) {
+                MenuItem item = l.getItem();
+                int code = itemCode(item.getId(), item.getName(), item.getCategory(), true);
+                int qty = l.getQuantity();
+                long rev = l.lineTotalMinor();
+                addRow(code, hour, qty, rev);
+                if (out != null) {
+                    out.writeByte(ROW);
+                    out.writeInt(code);
+                    out.writeInt(hour);
+                    out.writeInt(qty);
+                    out.writeLong(rev);
+                }
+            }
+            if (out != null) out.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private int itemCode(String id, String name, String category, boolean persist) throws IOException {
+        String category0 = category == null ? "" : category;
+        Integer code = itemCodes.get(id + "|" + category0);
+        if (code != null) return code;
+        int cat = categoryCodes.computeIfAbsent(category0, k -> {
+            categories.add(k);
+            return categories.size() - 1;
+        });
+        code = itemIds.size();
+        itemCodes.put(id + "|" + category0, code);
+        itemIds.add(id);
+        itemNames.add(name);
+        itemCategory.add(cat);
+        if (persist && out != null) {
+            out.writeByte(ITEM);
+            out.writeInt(code);
+            out.writeUTF(id);
+            out.writeUTF(name);
+            out.writeUTF(category0);
+        }
+        return code;
+    }
+
+    // Fills the next row and then publishes it (called holding this)
+    private void addRow(int code, int hour, int qty, long rev) {
+        int n = rows;
+        int c = n / CHUNK, i = n % CHUNK;
+        Chunk[] cs = chunks;
+        if (c == cs.length) {
+            cs = Arrays.copyOf(cs, c + 1);
+            cs[c] = new Chunk();
+            chunks = cs;
+        }
+        Chunk ch = cs[c];
+        ch.item[i] = code;
+        ch.category[i] = itemCategory.get(code);
+        ch.hour[i] = hour;
+        ch.quantity[i] = qty;
+        ch.revenue[i] = rev;
+        if (hour < ch.minHour) ch.minHour = hour;
+        if (hour > ch.maxHour) ch.maxHour = hour;
+        rows = n + 1;
+    }
+
+    private void load() {
+        if (!file.exists()) return;
+        long good = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            synchronized (this) {
+                while (true) {
+                    int type = in.read();
+                    if (type == ITEM) {
+                        int code = in.readInt();
+                        String id = in.readUTF(), name = in.readUTF(), category = in.readUTF();
+                        if (code != itemCode(id, name, category, false)) break;
+                        good += 1 + 4 + utfLength(id) + utfLength(name) + utfLength(category);
+                    } else if (type == ROW) {
+                        int code = in.readInt(), hour = in.readInt(), qty = in.readInt();
+                        long rev = in.readLong();
+                        if (code < 0 || code >= itemIds.size()) break;
+                        addRow(code, hour, qty, rev);
+                        good += ROW_BYTES;
+                    } else {
+                        break; // end of file, or bytes that aren't a record
+                    }
+                }
+            }
+        } catch (EOFException e) {
+            // a record cut short by a crash; dropped below
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        if (good < file.length()) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(good);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // ---------- helpers ----------
+
+    private synchronized int itemCount() { return itemIds.size(); }
+
+    private synchronized int categoryCount() { return categories.size(); }
+
+    private synchronized ItemSales sales(int code, long qty, long rev) {
+        return new ItemSales(itemIds.get(code), itemNames.get(code), categories.get(itemCategory.get(code)), qty, rev);
+    }
+
+    private static int hourOf(LocalDate day) {
+        return (int) (day.toEpochDay() * 24);
+    }
+
+    private static int hourOf(LocalDateTime t) {
+        return (int) (t.toEpochSecond(ZoneOffset.UTC) / 3600);
+    }
+
+    // Bytes DataOutputStream.writeUTF uses for s, length prefix included
+    private static int utfLength(String s) {
+        int n = 2;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            n += c >= 1 && c <= 0x7F ? 1 : c <= 0x7FF ? 2 : 3;
+        }
+        return n;
+    }
+}
@@ -1,28 +1,120 @@
 package cafeteria;
 
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.time.*;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
 
 class HashUtil {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    // MessageDigest isn't thread-safe, so each thread keeps its own instance and output buffer
+    private static final ThreadLocal<java.security.MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return java.security.MessageDigest.getInstance("SHA-256");
+        } catch (java.security.NoSuchAlgorithmException e) { throw new RuntimeException(e); }
+    });
+    private static final ThreadLocal<byte[]> OUT = ThreadLocal.withInitial(() -> new byte[32]);
+
     public static String sha256(String input) {
+        byte[] hash = digest(input);
+        char[] hex = new char[64];
+        for (int i = 0; i < 32; i++) {
+            hex[2 * i] = HEX[(hash[i] >> 4) & 0xF];
+            hex[2 * i + 1] = HEX[hash[i] & 0xF];
+        }
+        return new String(hex);
+    }
+
+    /** True if sha256(input) equals {@code expectedHex}; compares digits in place without building a string. */
+    public static boolean matches(String input, String expectedHex) {
+        if (expectedHex == null || expectedHex.length() != 64) return false;
+        byte[] hash = digest(input);
+        int diff = 0;
+        for (int i = 0; i < 32; i++) {
+            diff |= HEX[(hash[i] >> 4) & 0xF] ^ expectedHex.charAt(2 * i);
+            diff |= HEX[hash[i] & 0xF] ^ expectedHex.charAt(2 * i + 1);
+        }
+        return diff == 0;
+    }
+
+    /** Compares two secrets (keys, tokens) in time that doesn't depend on where they differ. */
+    public static boolean secretEquals(String expected, String given) {
+        if (expected == null || given == null) return false;
+        return java.security.MessageDigest.isEqual(expected.getBytes(StandardCharsets.UTF_8),
+                given.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Feeds the UTF-8 bytes of input straight into the digest (same bytes as getBytes(UTF_8))
+    private static byte[] digest(String input) {
+        java.security.MessageDigest md = SHA256.get();
+        for (int i = 0; i < input.length(); i++) {
+            char c = input.charAt(i);
+            if (c < 0x80) {
+                md.update((byte) c);
+            } else if (c < 0x800) {
+                md.update((byte) (0xC0 | (c >> 6)));
+                md.update((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < input.length() && Character.isLowSurrogate(input.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, input.charAt(++i));
+                md.update((byte) (0xF0 | (cp >> 18)));
+                md.update((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                md.update((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                md.update((byte) (0x80 | (cp & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                md.update((byte) '?'); // unpaired surrogate, as String.getBytes does
+            } else {
+                md.update((byte) (0xE0 | (c >> 12)));
+                md.update((byte) (0x80 | ((c >> 6) & 0x3F)));
+                md.update((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+        byte[] out = OUT.get();
         try {
-            java.security.MessageDigest md = java.security.MessageDigest.getInstance("SHA-256");
-            byte[] hash = md.digest(input.getBytes(java.nio.charset.StandardCharsets.UTF_8));
-            StringBuilder sb = new StringBuilder();
-            for (byte b : hash) sb.append(String.format("%02x", b));
-            return sb.toString();
-        } catch (Exception e) { throw new RuntimeException(e); }
+            md.digest(out, 0, out.length);
+        } catch (java.security.DigestException e) { throw new RuntimeException(e); }
+        return out;
+    }
+}
+
+class JsonUtil {
+    /** Appends {@code s} as a quoted JSON string. */
+    public static void appendString(Appendable out, String s) throws IOException {
+        out.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"': out.append("\\\""); break;
+                case '\\': out.append("\\\\"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                case '\t': out.append("\\t"); break;
+                default:
+                    if (c < 0x20) out.append(String.format("\\u%04x", (int) c));
+                    else out.append(c);
+            }
+        }
+        out.append('"');
     }
 }
 
 class StudentManager {
     private final StudentRepository repo;
-    public StudentManager(StudentRepository repo) { this.repo = repo; }
+    private final SessionManager sessions;
+    public StudentManager(StudentRepository repo) { this(repo, new SessionManager(10_000, java.time.Duration.ofMinutes(30))); }
+    public StudentManager(StudentRepository repo, SessionManager sessions) { this.repo = repo; this.sessions = sessions; }
     public Student register(String name, String studentId, String password) {
+        // Stored in ';'-separated student rows and '|'-separated order records, one per line
+        checkField("Name", name, 64);
+        checkField("Student ID", studentId, 32);
         if (repo.exists(studentId)) throw new IllegalArgumentException("Student ID already exists.");
         String hash = HashUtil.sha256(password);
         Student s = new Student(name, studentId, hash);
@@ -30,10 +122,22 @@ class StudentManager {
         return s;
     }
     public Optional<Student> login(String studentId, String password) {
-        String hash = HashUtil.sha256(password);
-        return repo.findById(studentId).filter(s -> s.getPasswordHash().equals(hash));
+        return repo.findById(studentId).filter(s -> HashUtil.matches(password, s.getPasswordHash()));
+    }
+    /** Checks the password once and returns a session token that {@link #resolveSession} accepts from then on. */
+    public Optional<String> openSession(String studentId, String password) {
+        return login(studentId, password).map(s -> sessions.open(s.getStudentId()));
     }
+    public Optional<Student> resolveSession(String token) { return sessions.resolve(token).flatMap(repo::findById); }
+    public void closeSession(String token) { sessions.close(token); }
     public boolean exists(String studentId) { return repo.exists(studentId); }
+    private static void checkField(String label, String value, int max) {
+        if (value == null || value.isBlank() || value.length() > max) throw new IllegalArgumentException(label + " must be 1-" + max + " characters.");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ';' || c == '|' || Character.isISOControl(c)) throw new IllegalArgumentException(label + " has an invalid character.");
+        }
+    }
 }
 
 class MenuManager {
@@ -43,6 +147,14 @@ class MenuManager {
     public Optional<MenuItem> findById(String id) { return provider.findById(id); }
     public void addItem(MenuItem i) { provider.addItem(i); }
     public void removeItem(String id) { provider.removeItem(id); }
+    public MenuSnapshot snapshot() { return provider.snapshot(); }
+    public MenuSnapshot edit(java.util.function.Consumer<MenuSnapshot.Builder> changes) { return provider.edit(changes); }
+    /** Renames and/or reprices an item (null keeps the current value); false if the id is unknown. */
+    public boolean updateItem(String id, String name, Double price) {
+        boolean[] found = new boolean[1];
+        provider.edit(b -> found[0] = b.update(id, name, price));
+        return found[0];
+    }
 }
 
 interface PointsCalculator {
@@ -63,41 +175,91 @@ class TieredPointsCalculator implements PointsCalculator {
     }
 }
 
+// Fixed set of locks shared by students whose IDs hash to the same stripe, so a student's
+// balance changes are serialized without keeping a lock object per student
+class StudentLocks {
+    private final ReentrantLock[] stripes;
+    public StudentLocks(int stripes) {
+        int n = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.stripes = new ReentrantLock[n];
+        for (int i = 0; i < n; i++) this.stripes[i] = new ReentrantLock();
+    }
+    public ReentrantLock lockFor(String studentId) {
+        int h = studentId.hashCode();
+        return stripes[(h ^ (h >>> 16)) & (stripes.length - 1)];
+    }
+}
+
 class LoyaltyProgram {
     private final PointsCalculator calculator;
     private final StudentRepository students;
+    private final StudentLocks locks = new StudentLocks(64);
+    private final List<LoyaltyListener> listeners = new CopyOnWriteArrayList<>();
     public LoyaltyProgram(PointsCalculator calc, StudentRepository repo) { this.calculator = calc; this.students = repo; }
+    public void addListener(LoyaltyListener l) { listeners.add(l); }
     // package-private accessor for repository (used by OrderProcessor within same package)
     StudentRepository getStudentRepository() { return students; }
+    // package-private so OrderProcessor can hold a student's lock across a whole checkout
+    StudentLocks getLocks() { return locks; }
     public int awardPoints(String studentId, double amountAfterDiscount) {
         int pts = calculator.earnPoints(amountAfterDiscount);
-        students.findById(studentId).ifPresent(s -> s.addPoints(pts));
+        ReentrantLock lock = locks.lockFor(studentId);
+        lock.lock();
+        try {
+            students.findById(studentId).ifPresent(s -> {
+                s.addPoints(pts);
+                pointsChanged(s);
+            });
+        } finally { lock.unlock(); }
         return pts;
     }
     public boolean redeemDiscount(String studentId, int pointsCost, double egpDiscount) {
-        Optional<Student> os = students.findById(studentId);
-        if (os.isEmpty()) return false;
-        Student s = os.get();
-        if (!s.deductPoints(pointsCost)) return false;
-        s.addDiscount(egpDiscount);
+        ReentrantLock lock = locks.lockFor(studentId);
+        lock.lock();
+        try {
+            Optional<Student> os = students.findById(studentId);
+            if (os.isEmpty()) return false;
+            Student s = os.get();
+            if (!s.deductPoints(pointsCost)) return false;
+            pointsChanged(s);
+            s.addDiscount(egpDiscount);
+        } finally { lock.unlock(); }
+        listeners.forEach(l -> l.redeemed(studentId, pointsCost));
         return true;
     }
     public boolean redeemFreeItem(String studentId, int pointsCost, String menuItemId) {
-        Optional<Student> os = students.findById(studentId);
-        if (os.isEmpty()) return false;
-        Student s = os.get();
-        if (!s.deductPoints(pointsCost)) return false;
-        // For simplicity: add discount equal to cheapest item price later at checkout when added
+        ReentrantLock lock = locks.lockFor(studentId);
+        lock.lock();
+        try {
+            Optional<Student> os = students.findById(studentId);
+            if (os.isEmpty()) return false;
+            Student s = os.get();
+            if (!s.deductPoints(pointsCost)) return false;
+            pointsChanged(s);
+            // For simplicity: add discount equal to cheapest item price later at checkout when added
+        } finally { lock.unlock(); }
+        listeners.forEach(l -> l.redeemed(studentId, pointsCost));
         return true;
     }
     public int pointsOf(String studentId) {
         return students.findById(studentId).map(Student::getPoints).orElse(0);
     }
+    // Fired under the student's lock, so listeners see each student's balances in order
+    private void pointsChanged(Student s) {
+        listeners.forEach(l -> l.pointsChanged(s));
+    }
 }
 
-class NotificationService {
+class NotificationService implements INotificationService {
+    @Override
+    public void notifyStudent(String studentId, String message) {
+        System.out.println(">> Notification to "+studentId+": "+message);
+    }
     public void notifyReady(String studentId, String orderId) {
-        System.out.println(">> Notification to "+studentId+": Your order "+orderId.substring(0,8)+" is READY_FOR_PICKUP.");
+        notifyStudent(studentId, readyMessage(orderId));
+    }
+    static String readyMessage(String orderId) {
+        return "Your order "+orderId.substring(0,8)+" is READY_FOR_PICKUP.";
     }
 }
 
@@ -105,35 +267,115 @@ class OrderProcessor {
     private final MenuProvider menu;
     private final OrderRepository orders;
     private final LoyaltyProgram loyalty;
-    private final NotificationService notifications;
-    private final Map<String, List<Order>> byStudentCache = new HashMap<>();
+    private final INotificationService notifications;
+    private final List<OrderListener> listeners = new CopyOnWriteArrayList<>();
+    // Fast path for retries; the repository's key index is the durable fallback
+    private final IdempotencyCache recentKeys = new IdempotencyCache(50_000, java.time.Duration.ofHours(1));
 
-    public OrderProcessor(MenuProvider menu, OrderRepository repo, LoyaltyProgram loyalty, NotificationService notifications) {
+    public OrderProcessor(MenuProvider menu, OrderRepository repo, LoyaltyProgram loyalty, INotificationService notifications) {
         this.menu = menu; this.orders = repo; this.loyalty = loyalty; this.notifications = notifications;
     }
 
+    public void addListener(OrderListener l) { listeners.add(l); }
+
     public Order placeOrder(String studentId, List<OrderLine> cart, PaymentProcessor payment) {
-        // Apply discount wallet & freebies (simplified: wallet consumed automatically)
-        Order o = new Order(studentId, cart);
-        double appliedDiscount = getStudent(studentId).map(s -> s.consumeDiscount(o.getTotal())).orElse(0.0);
-        o.setTotal(o.getTotal() - appliedDiscount);
-        if (!payment.process(o.getTotal())) throw new IllegalStateException("Payment failed.");
-        int pts = loyalty.awardPoints(studentId, o.getTotal());
-        o.setPointsEarned(pts);
-        orders.save(o);
-        getStudent(studentId).ifPresent(s -> s.getOrders().add(o));
-        return o;
+        return placeOrder(studentId, cart, payment, null);
+    }
+
+    /**
+     * Places an order at most once per {@code idempotencyKey} (chosen by the client, unique per
+     * student). A retry with a key that was already used returns the original order without
+     * charging or awarding points again, even if the cart differs. A null key disables the check.
+     */
+    public Order placeOrder(String studentId, List<OrderLine> cart, PaymentProcessor payment, String idempotencyKey) {
+        long t0 = System.nanoTime();
+        String cacheKey = null;
+        if (idempotencyKey != null) {
+            checkIdempotencyKey(idempotencyKey);
+            cacheKey = studentId + "|" + idempotencyKey;
+            Order seen = recentKeys.get(cacheKey);
+            if (seen != null) {
+                Metrics.ORDER_REPLAYS.increment();
+                return seen;
+            }
+        }
+        // One checkout per student at a time, so the wallet and points can't be spent twice
+        ReentrantLock lock = loyalty.getLocks().lockFor(studentId);
+        Order placed;
+        lock.lock();
+        try {
+            // Retries of one key run under the same lock, so only the first gets past this check
+            if (idempotencyKey != null) {
+                Optional<Order> saved = orders.findByIdempotencyKey(studentId, idempotencyKey);
+                if (saved.isPresent()) {
+                    recentKeys.put(cacheKey, saved.get());
+                    Metrics.ORDER_REPLAYS.increment();
+                    return saved.get();
+                }
+            }
+            Optional<Student> student = getStudent(studentId);
+            // Apply discount wallet & freebies (simplified: wallet consumed automatically)
+            Order o = new Order(studentId, cart);
+            o.setIdempotencyKey(idempotencyKey);
+            double appliedDiscount = student.map(s -> s.consumeDiscount(o.getTotal())).orElse(0.0);
+            o.setTotal(o.getTotal() - appliedDiscount);
+            o.setDiscountApplied(appliedDiscount);
+            if (!payment.process(o.getTotal())) {
+                if (appliedDiscount > 0) student.get().addDiscount(appliedDiscount); // give the wallet back
+                throw new IllegalStateException("Payment failed.");
+            }
+            int pts = loyalty.awardPoints(studentId, o.getTotal());
+            o.setPointsEarned(pts);
+            orders.save(o);
+            if (cacheKey != null) recentKeys.put(cacheKey, o);
+            placed = o;
+        } finally {
+            lock.unlock();
+        }
+        listeners.forEach(l -> l.orderPlaced(placed));
+        Metrics.ORDERS_PLACED.increment();
+        Metrics.PLACE_ORDER.recordSince(t0);
+        return placed;
+    }
+
+    /** Checks out a cart at the prices it was built with. */
+    public Order placeOrder(String studentId, Cart cart, PaymentProcessor payment) {
+        return placeOrder(studentId, cart.toLines(), payment, null);
+    }
+
+    public Order placeOrder(String studentId, Cart cart, PaymentProcessor payment, String idempotencyKey) {
+        return placeOrder(studentId, cart.toLines(), payment, idempotencyKey);
+    }
+
+    // Keys are stored in the '|'-separated order journal, one record per line
+    private static void checkIdempotencyKey(String key) {
+        if (key.isEmpty() || key.length() > 128) throw new IllegalArgumentException("Idempotency key must be 1-128 characters.");
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (c == '|' || c < 0x20) throw new IllegalArgumentException("Idempotency key has an invalid character.");
+        }
     }
 
     public List<Order> ordersOf(String studentId) { return orders.byStudent(studentId); }
 
+    /** One page of the student's history, newest first; pass the page's cursor to get the next one. */
+    public OrderPage history(String studentId, String cursor, int limit) { return orders.byStudent(studentId, cursor, limit); }
+
     public List<Order> listByStatus(OrderStatus st) { return orders.byStatus(st); }
 
-    public void updateStatus(String orderId, OrderStatus status) {
-        orders.findById(orderId).ifPresent(o -> {
-            o.setStatus(status);
-            if (status == OrderStatus.READY_FOR_PICKUP) notifications.notifyReady(o.getStudentId(), o.getOrderId());
-        });
+    /** @return false if there is no such order */
+    public boolean updateStatus(String orderId, OrderStatus status) {
+        long t0 = System.nanoTime();
+        // The repository swaps the status in one step, so two callers never both see the same previous status
+        Optional<OrderStatus> previous = orders.updateStatus(orderId, status);
+        if (previous.isPresent()) {
+            orders.findById(orderId).ifPresent(o -> {
+                if (status == OrderStatus.READY_FOR_PICKUP) notifications.notifyStudent(o.getStudentId(), NotificationService.readyMessage(o.getOrderId()));
+                listeners.forEach(l -> l.statusChanged(o, previous.get()));
+            });
+        }
+        Metrics.UPDATE_STATUS.recordSince(t0);
+        return previous.isPresent();
     }
 
     private Optional<Student> getStudent(String id) {
@@ -142,35 +384,158 @@ class OrderProcessor {
     }
 }
 
-class ReportService {
+// Register with OrderProcessor.addListener and LoyaltyProgram.addListener so the
+// per-day totals follow new orders and redemptions.
+class ReportService implements OrderListener, LoyaltyListener {
+    /** Running totals for one day (or a range of days once merged). */
+    static class DayTotals {
+        int orders;
+        double sales;      // paid, after discounts
+        double discounts;  // taken from wallets
+        long points;       // issued
+        int redemptions;
+
+        synchronized void addOrder(Order o) {
+            orders++;
+            sales += o.getTotal();
+            discounts += o.getDiscountApplied();
+            points += o.getPointsEarned();
+        }
+        synchronized void addDay(OrderArchive.Partition p) {
+            orders += p.getOrders();
+            sales += p.getSales();
+            discounts += p.getDiscounts();
+            points += p.getPoints();
+        }
+        synchronized void addRedemption() { redemptions++; }
+        synchronized void addTo(DayTotals sum) {
+            sum.orders += orders;
+            sum.sales += sales;
+            sum.discounts += discounts;
+            sum.points += points;
+            sum.redemptions += redemptions;
+        }
+        public int getOrders() { return orders; }
+        public double getSales() { return sales; }
+        public double getGrossSales() { return sales + discounts; }
+        public double getDiscounts() { return discounts; }
+        public long getPoints() { return points; }
+        public int getRedemptions() { return redemptions; }
+    }
+
     private final OrderRepository repo;
-    public ReportService(OrderRepository repo) { this.repo = repo; }
+    private final Map<LocalDate, DayTotals> days = new ConcurrentHashMap<>();
+
+    public ReportService(OrderRepository repo) {
+        this.repo = repo;
+        // archived days come from their file headers and the orders in memory from totals each
+        // shard works out itself, so no order is copied here; redemptions before startup aren't persisted
+        for (OrderArchive.Partition p : repo.archived()) days.computeIfAbsent(p.getDay(), d -> new DayTotals()).addDay(p);
+        for (OrderArchive.Partition p : repo.dayTotals()) days.computeIfAbsent(p.getDay(), d -> new DayTotals()).addDay(p);
+    }
+
+    @Override
+    public void orderPlaced(Order o) {
+        days.computeIfAbsent(o.getCreatedAt().toLocalDate(), d -> new DayTotals()).addOrder(o);
+    }
+
+    @Override
+    public void redeemed(String studentId, int pointsCost) {
+        days.computeIfAbsent(LocalDate.now(), d -> new DayTotals()).addRedemption();
+    }
+
+    /** Totals for {@code from..to} inclusive, read from the per-day aggregates. */
+    public DayTotals summary(LocalDate from, LocalDate to) {
+        DayTotals sum = new DayTotals();
+        for (LocalDate d = from; !d.isAfter(to); d = d.plusDays(1)) {
+            DayTotals t = days.get(d);
+            if (t != null) t.addTo(sum);
+        }
+        return sum;
+    }
+
     public String dailySummary() {
         LocalDate today = LocalDate.now();
-        List<Order> list = repo.all().stream().filter(o -> o.getCreatedAt().toLocalDate().equals(today)).collect(Collectors.toList());
-        double sales = list.stream().mapToDouble(Order::getTotal).sum();
-        int redemptions = 0; // tracked via loyalty repo in a real DB
-        return "Daily ("+today+"): orders="+list.size()+", sales=EGP "+String.format("%.2f",sales)+", redemptions~"+redemptions;
+        DayTotals t = summary(today, today);
+        return "Daily ("+today+"): orders="+t.getOrders()+", sales=EGP "+String.format("%.2f",t.getSales())
+                +", discounts=EGP "+String.format("%.2f",t.getDiscounts())+", points="+t.getPoints()+", redemptions="+t.getRedemptions();
     }
     public String weeklySummary() {
         LocalDate start = LocalDate.now().minusDays(6);
-        List<Order> list = repo.all().stream().filter(o -> !o.getCreatedAt().toLocalDate().isBefore(start)).collect(Collectors.toList());
-        double sales = list.stream().mapToDouble(Order::getTotal).sum();
-        return "Weekly ("+start+".."+LocalDate.now()+"): orders="+list.size()+", sales=EGP "+String.format("%.2f",sales);
+        DayTotals t = summary(start, LocalDate.now());
+        return "Weekly ("+start+".."+LocalDate.now()+"): orders="+t.getOrders()+", sales=EGP "+String.format("%.2f",t.getSales())
+                +", discounts=EGP "+String.format("%.2f",t.getDiscounts())+", points="+t.getPoints()+", redemptions="+t.getRedemptions();
     }
-    public String exportCsv(String outDir) {
+    public enum ExportFormat { CSV, NDJSON }
+
+    public String exportCsv(String outDir) { return export(outDir, null, null, ExportFormat.CSV, false); }
+
+    /**
+     * Streams orders created in {@code from..to} (inclusive, null for open-ended) to a file in
+     * {@code outDir}, one row at a time, so memory use doesn't grow with the number of orders.
+     * NDJSON rows include the order lines. Orders saved before the journal stored lines have none
+     * to give, so their rows leave the {@code lines} field out rather than claim an empty order.
+     */
+    public String export(String outDir, LocalDate from, LocalDate to, ExportFormat format, boolean gzip) {
         try {
             Files.createDirectories(Paths.get(outDir));
-            String name = "sales_"+LocalDate.now().toString()+".csv";
+            String range = from == null && to == null ? LocalDate.now().toString() : (from == null ? "start" : from)+"_"+(to == null ? "now" : to);
+            String name = "sales_"+range+(format == ExportFormat.CSV ? ".csv" : ".ndjson")+(gzip ? ".gz" : "");
             Path p = Paths.get(outDir, name);
-            String header = "orderId,studentId,total,status,createdAt\n";
-            String rows = repo.all().stream().map(o -> String.join(",",
-                    o.getOrderId(), o.getStudentId(), String.format("%.2f",o.getTotal()), o.getStatus().name(), o.getCreatedAt().toString()))
-                    .collect(Collectors.joining("\n"));
-            Files.writeString(p, header+rows);
+            try (FileChannel ch = FileChannel.open(p, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                 Writer w = writer(ch, gzip)) {
+                if (format == ExportFormat.CSV) w.write("orderId,studentId,total,status,createdAt\n");
+                // archived days are decompressed one file at a time as the scan reaches them
+                repo.scan(from, to, o -> {
+                    if (format == ExportFormat.CSV) writeCsvRow(w, o);
+                    else writeJsonRow(w, o);
+                });
+            }
             return p.toString();
         } catch (IOException e) { throw new RuntimeException(e); }
     }
+
+    private static Writer writer(FileChannel ch, boolean gzip) throws IOException {
+        OutputStream out = new BufferedOutputStream(Channels.newOutputStream(ch), 1 << 16);
+        if (gzip) out = new GZIPOutputStream(out, 1 << 16);
+        return new OutputStreamWriter(out, StandardCharsets.UTF_8);
+    }
+
+    private static void writeCsvRow(Writer w, Order o) throws IOException {
+        w.write(o.getOrderId()); w.write(',');
+        w.write(o.getStudentId()); w.write(',');
+        w.write(String.format("%.2f", o.getTotal())); w.write(',');
+        w.write(o.getStatus().name()); w.write(',');
+        w.write(o.getCreatedAt().toString()); w.write('\n');
+    }
+
+    private static void writeJsonRow(Writer w, Order o) throws IOException {
+        w.write("{\"orderId\":"); JsonUtil.appendString(w, o.getOrderId());
+        w.write(",\"studentId\":"); JsonUtil.appendString(w, o.getStudentId());
+        w.write(",\"total\":"); w.write(Double.toString(o.getTotal()));
+        w.write(",\"discount\":"); w.write(Double.toString(o.getDiscountApplied()));
+        w.write(",\"points\":"); w.write(Integer.toString(o.getPointsEarned()));
+        w.write(",\"status\":\""); w.write(o.getStatus().name());
+        w.write("\",\"createdAt\":\""); w.write(o.getCreatedAt().toString());
+        w.write('"');
+        // Every placed order has lines, so none means it was saved before the journal stored them
+        if (o.getLines().isEmpty()) {
+            w.write("}\n");
+            return;
+        }
+        w.write(",\"lines\":[");
+        boolean first = true;
+        for (OrderLine l : o.getLines()) {
+            if (!first) w.write(',');
+            first = false;
+            w.write("{\"itemId\":"); JsonUtil.appendString(w, l.getItem().getId());
+            w.write(",\"name\":"); JsonUtil.appendString(w, l.getItem().getName());
+            w.write(",\"quantity\":"); w.write(Integer.toString(l.getQuantity()));
+            w.write(",\"lineTotal\":"); w.write(Double.toString(l.lineTotal()));
+            w.write('}');
+        }
+        w.write("]}\n");
+    }
 }
 
 class CashPaymentProcessor implements PaymentProcessor {
@@ -0,0 +1,72 @@
+package cafeteria;
+
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.*;
+
+/**
+ * Opaque login tokens for kiosks and other clients that authenticate repeatedly.
+ * Holds at most {@code maxSessions} tokens (least recently used are dropped first), and a token
+ * expires once it has gone unused for the idle timeout. Lookups are O(1).
+ */
+public class SessionManager {
+    private static final class Session {
+        final String studentId;
+        long lastUsed;
+        Session(String studentId, long lastUsed) { this.studentId = studentId; this.lastUsed = lastUsed; }
+    }
+
+    private final long idleNanos;
+    private final SecureRandom random = new SecureRandom();
+    private final Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+    private final LinkedHashMap<String, Session> sessions;
+
+    public SessionManager(int maxSessions, Duration idleTimeout) {
+        this.idleNanos = idleTimeout.toNanos();
+        this.sessions = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Session> eldest) {
+                return size() > maxSessions;
+            }
+        };
+    }
+
+    /** Starts a session for an already authenticated student and returns its token. */
+    public String open(String studentId) {
+        byte[] bytes = new byte[24];
+        random.nextBytes(bytes);
+        String token = encoder.encodeToString(bytes);
+        synchronized (sessions) {
+            sessions.put(token, new Session(studentId, System.nanoTime()));
+        }
+        return token;
+    }
+
+    /** The student behind {@code token}, refreshing its idle timer; empty if unknown or expired. */
+    public Optional<String> resolve(String token) {
+        if (token == null) return Optional.empty();
+        long now = System.nanoTime();
+        synchronized (sessions) {
+            Session s = sessions.get(token);
+            if (s == null) return Optional.empty();
+            if (now - s.lastUsed > idleNanos) {
+                sessions.remove(token);
+                return Optional.empty();
+            }
+            s.lastUsed = now;
+            return Optional.of(s.studentId);
+        }
+    }
+
+    public void close(String token) {
+        synchronized (sessions) {
+            sessions.remove(token);
+        }
+    }
+
+    public int size() {
+        synchronized (sessions) {
+            return sessions.size();
+        }
+    }
+}
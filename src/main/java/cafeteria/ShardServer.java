@@ -0,0 +1,197 @@
+package cafeteria;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves one order shard to {@link RemoteOrderRepository} clients over a line protocol.
+ * Each request is one line; orders travel as {@link OrderRecords#save} records.
+ * <pre>
+ * SAVE|&lt;save record&gt;            OK|0
+ * STUDENT|studentId               OK|n, then n records
+ * PAGE|limit|studentId|cursor     OK|n|nextCursor, then n records
+ * STATUS|status                   OK|n, then n records
+ * FIND|orderId                    OK|0 or OK|1 and the record
+ * KEY|studentId|key               OK|0 or OK|1 and the record
+ * ALL                             OK|n, then n records
+ * SCAN|from|to                    OK|n, then n records (empty date for open-ended)
+ * UPDATE|orderId|status           OK|0 or OK|1 and the status it replaced
+ * DELETE|orderId                  OK|0
+ * TOTALS                          OK|n, then n lines day|orders|sales|discounts|points for orders in memory
+ * ARCHIVED                        OK|n, then n lines day|orders|sales|discounts|points
+ * ARCHIVE|seconds                 OK|0|archived
+ * </pre>
+ * The number after OK is how many lines follow. Failures answer {@code ERR|message}.
+ * A connection's first line must be {@code AUTH|key} with the shared key (answered {@code OK|0});
+ * anything else gets {@code ERR|Denied.} and the connection is closed.
+ * <p>
+ * The server listens on loopback unless given an address to bind; the key comes from
+ * CAFETERIA_ADMIN_KEY, the same one the API server uses, and must be set.
+ *
+ * <pre>java -cp out cafeteria.ShardServer port file [bindAddress]</pre>
+ */
+public class ShardServer implements AutoCloseable {
+    private final OrderRepository repo;
+    private final String key;
+    private final ServerSocket socket;
+    private final ExecutorService connections;
+
+    /** Listens on the loopback interface only. */
+    public ShardServer(int port, OrderRepository repo, String key) throws IOException {
+        this(InetAddress.getLoopbackAddress(), port, repo, key);
+    }
+
+    public ShardServer(InetAddress bind, int port, OrderRepository repo, String key) throws IOException {
+        this.repo = repo;
+        this.key = key;
+        this.socket = new ServerSocket(port, 50, bind);
+        this.connections = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "shard-conn");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public int getPort() { return socket.getLocalPort(); }
+
+    /** Accepts connections on a non-daemon thread, so the process stays up until {@link #close}. */
+    public void start() {
+        new Thread(this::acceptLoop, "shard-accept").start();
+    }
+
+    /** Stops accepting connections; the repository is left open for the caller to close. */
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        connections.shutdownNow();
+    }
+
+    private void acceptLoop() {
+        while (!socket.isClosed()) {
+            try {
+                Socket s = socket.accept();
+                s.setTcpNoDelay(true);
+                connections.execute(() -> serve(s));
+            } catch (IOException e) {
+                if (!socket.isClosed()) e.printStackTrace();
+            }
+        }
+    }
+
+    // One connection runs its requests in order; the client pools connections for parallelism
+    private void serve(Socket s) {
+        try (s;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8))) {
+            String hello = in.readLine();
+            if (hello == null || !hello.startsWith("AUTH|") || !HashUtil.secretEquals(key, hello.substring(5))) {
+                out.write("ERR|Denied.\n");
+                out.flush();
+                return;
+            }
+            out.write("OK|0\n");
+            out.flush();
+            String line;
+            while ((line = in.readLine()) != null) {
+                try {
+                    handle(line, out);
+                } catch (RuntimeException e) {
+                    out.write("ERR|" + String.valueOf(e.getMessage()).replace('\n', ' ') + "\n");
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            // client went away
+        }
+    }
+
+    private void handle(String line, Writer out) throws IOException {
+        int bar = line.indexOf('|');
+        String cmd = bar < 0 ? line : line.substring(0, bar);
+        String arg = bar < 0 ? "" : line.substring(bar + 1);
+        switch (cmd) {
+            case "SAVE": {
+                Order o = OrderRecords.parseOrder(arg, 2);
+                if (o == null) throw new IllegalArgumentException("Bad order record.");
+                repo.save(o);
+                out.write("OK|0\n");
+                break;
+            }
+            case "STUDENT": writeOrders(out, repo.byStudent(arg)); break;
+            case "PAGE": {
+                String[] f = arg.split("\\|", 3);
+                OrderPage page = repo.byStudent(f[1], f.length > 2 && !f[2].isEmpty() ? f[2] : null, Integer.parseInt(f[0]));
+                out.write("OK|" + page.getOrders().size() + "|" + (page.hasMore() ? page.getNextCursor() : "") + "\n");
+                for (Order o : page.getOrders()) out.write(OrderRecords.save(o) + "\n");
+                break;
+            }
+            case "STATUS": writeOrders(out, repo.byStatus(OrderStatus.valueOf(arg))); break;
+            case "FIND": writeOrders(out, repo.findById(arg).map(List::of).orElse(List.of())); break;
+            case "KEY": {
+                String[] f = arg.split("\\|", 2);
+                writeOrders(out, repo.findByIdempotencyKey(f[0], f[1]).map(List::of).orElse(List.of()));
+                break;
+            }
+            case "ALL": writeOrders(out, new ArrayList<>(repo.all())); break;
+            case "SCAN": {
+                String[] f = arg.split("\\|", -1);
+                List<Order> found = new ArrayList<>();
+                repo.scan(f[0].isEmpty() ? null : LocalDate.parse(f[0]), f[1].isEmpty() ? null : LocalDate.parse(f[1]), found::add);
+                writeOrders(out, found);
+                break;
+            }
+            case "UPDATE": {
+                String[] f = arg.split("\\|", 2);
+                Optional<OrderStatus> previous = repo.updateStatus(f[0], OrderStatus.valueOf(f[1]));
+                out.write(previous.isPresent() ? "OK|1\n" + previous.get().name() + "\n" : "OK|0\n");
+                break;
+            }
+            case "DELETE": repo.delete(arg); out.write("OK|0\n"); break;
+            case "TOTALS": writeDays(out, repo.dayTotals()); break;
+            case "ARCHIVED": writeDays(out, repo.archived()); break;
+            case "ARCHIVE": out.write("OK|0|" + repo.archiveOlderThan(Duration.ofSeconds(Long.parseLong(arg))) + "\n"); break;
+            default: throw new IllegalArgumentException("Unknown command " + cmd);
+        }
+    }
+
+    private static void writeOrders(Writer out, List<Order> orders) throws IOException {
+        out.write("OK|" + orders.size() + "\n");
+        for (Order o : orders) out.write(OrderRecords.save(o) + "\n");
+    }
+
+    private static void writeDays(Writer out, List<OrderArchive.Partition> parts) throws IOException {
+        out.write("OK|" + parts.size() + "\n");
+        for (OrderArchive.Partition p : parts) {
+            out.write(p.getDay() + "|" + p.getOrders() + "|" + p.getSales() + "|" + p.getDiscounts() + "|" + p.getPoints() + "\n");
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: java cafeteria.ShardServer port file [bindAddress]");
+            return;
+        }
+        InMemoryOrderRepository repo = new InMemoryOrderRepository(args[1]);
+        String key = ApiServer.requireAdminKey();
+        InetAddress bind = args.length > 2 ? InetAddress.getByName(args[2]) : InetAddress.getLoopbackAddress();
+        ShardServer server = new ShardServer(bind, Integer.parseInt(args[0]), repo, key);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            repo.close();
+        }, "shard-shutdown"));
+        server.start();
+        System.out.println("Order shard " + args[1] + " listening on " + bind.getHostAddress() + ":" + server.getPort());
+    }
+}
@@ -0,0 +1,244 @@
+package cafeteria;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+/**
+ * Splits orders across several repositories by a hash of the student id. Each shard has its
+ * own file and lock, so checkouts by different students append to different journals in
+ * parallel. Shards are usually {@link InMemoryOrderRepository} files in this process (see
+ * {@link #local}) or {@link RemoteOrderRepository} clients of {@link ShardServer} processes.
+ * <p>
+ * Per-student calls go to one shard. Order ids don't say which shard holds them, so
+ * {@link #findById}, status changes and deletes ask every shard, as do {@link #byStatus} and
+ * {@link #all}, which merge the answers.
+ * <p>
+ * The shard count is part of the data layout: {@link #local} records it next to the files and
+ * refuses to open them with a different count. The first time it opens, orders already in the
+ * unsharded file are moved into the shards.
+ */
+public class ShardedOrderRepository implements OrderRepository {
+    private static final Comparator<Order> BY_CREATED =
+            Comparator.comparing(Order::getCreatedAt).thenComparing(Order::getOrderId);
+
+    // Journal, rotated segment, snapshot and archive of a single InMemoryOrderRepository file
+    private static final String[] UNSHARDED_FILES = {"", ".1", ".snapshot", ".archive"};
+
+    private final List<OrderRepository> shards;
+    // Runs the other shards' part of a scatter-gather while the caller does the first one
+    private final ExecutorService gather;
+
+    public ShardedOrderRepository(List<OrderRepository> shards) {
+        if (shards.isEmpty()) throw new IllegalArgumentException("At least one shard is needed.");
+        this.shards = List.copyOf(shards);
+        this.gather = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "shard-gather");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * {@code count} shards stored as {@code filename.shard-0}, {@code filename.shard-1}, ...
+     * If {@code filename} itself holds orders from before sharding, they (and its archive) are
+     * copied into the shards on first open and the old files renamed to {@code *.unsharded}.
+     */
+    public static ShardedOrderRepository local(String filename, int count) {
+        File marker = new File(filename + ".shards");
+        boolean fresh = !marker.exists();
+        if (!fresh) checkLayout(marker, count);
+        else if (count < 1) throw new IllegalArgumentException("At least one shard is needed.");
+        List<OrderRepository> shards = new ArrayList<>();
+        for (int i = 0; i < count; i++) shards.add(new InMemoryOrderRepository(filename + ".shard-" + i));
+        ShardedOrderRepository repo = new ShardedOrderRepository(shards);
+        if (fresh) {
+            // Copying is idempotent (same ids), so a crash before the marker is written just copies again
+            repo.migrateFrom(filename);
+            checkLayout(marker, count);
+            for (String suffix : UNSHARDED_FILES) retire(new File(filename + suffix));
+        }
+        return repo;
+    }
+
+    /** Connects to {@code host:port} shard servers, in shard order, authenticating with {@code key}. */
+    public static ShardedOrderRepository remote(List<String> addresses, String key) {
+        List<OrderRepository> shards = new ArrayList<>();
+        for (String a : addresses) {
+            int colon = a.lastIndexOf(':');
+            if (colon < 0) throw new IllegalArgumentException("Expected host:port, got " + a);
+            shards.add(new RemoteOrderRepository(a.substring(0, colon).trim(), Integer.parseInt(a.substring(colon + 1).trim()), key));
+        }
+        return new ShardedOrderRepository(shards);
+    }
+
+    public int shardCount() { return shards.size(); }
+
+    /** The shard holding this student's orders. Stable across runs: String.hashCode is specified. */
+    OrderRepository shardFor(String studentId) {
+        int h = studentId.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return shards.get(Math.floorMod(h, shards.size()));
+    }
+
+    @Override
+    public void save(Order o) {
+        shardFor(o.getStudentId()).save(o);
+    }
+
+    @Override
+    public List<Order> byStudent(String studentId) {
+        return shardFor(studentId).byStudent(studentId);
+    }
+
+    @Override
+    public OrderPage byStudent(String studentId, String cursor, int limit) {
+        return shardFor(studentId).byStudent(studentId, cursor, limit);
+    }
+
+    @Override
+    public Optional<Order> findByIdempotencyKey(String studentId, String key) {
+        return shardFor(studentId).findByIdempotencyKey(studentId, key);
+    }
+
+    @Override
+    public List<Order> byStatus(OrderStatus status) {
+        List<Order> result = new ArrayList<>();
+        for (List<Order> part : scatter(s -> s.byStatus(status))) result.addAll(part);
+        result.sort(BY_CREATED);
+        return result;
+    }
+
+    @Override
+    public Optional<Order> findById(String orderId) {
+        for (Optional<Order> found : scatter(s -> s.findById(orderId))) {
+            if (found.isPresent()) return found;
+        }
+        return Optional.empty();
+    }
+
+    @Override
+    public Collection<Order> all() {
+        List<Order> result = new ArrayList<>();
+        for (Collection<Order> part : scatter(OrderRepository::all)) result.addAll(part);
+        return result;
+    }
+
+    // Shards that don't hold the order ignore these
+    @Override
+    public Optional<OrderStatus> updateStatus(String orderId, OrderStatus status) {
+        for (Optional<OrderStatus> previous : scatter(s -> s.updateStatus(orderId, status))) {
+            if (previous.isPresent()) return previous;
+        }
+        return Optional.empty();
+    }
+
+    @Override
+    public void delete(String orderId) {
+        scatter(s -> {
+            s.delete(orderId);
+            return null;
+        });
+    }
+
+    // Visitors aren't thread-safe, so shards are scanned one after another
+    @Override
+    public void scan(LocalDate from, LocalDate to, OrderArchive.Visitor visitor) throws IOException {
+        for (OrderRepository s : shards) s.scan(from, to, visitor);
+    }
+
+    @Override
+    public List<OrderArchive.Partition> dayTotals() {
+        List<OrderArchive.Partition> result = new ArrayList<>();
+        for (List<OrderArchive.Partition> part : scatter(OrderRepository::dayTotals)) result.addAll(part);
+        return result;
+    }
+
+    @Override
+    public List<OrderArchive.Partition> archived() {
+        List<OrderArchive.Partition> result = new ArrayList<>();
+        for (List<OrderArchive.Partition> part : scatter(OrderRepository::archived)) result.addAll(part);
+        return result;
+    }
+
+    @Override
+    public int archiveOlderThan(Duration age) {
+        int archived = 0;
+        for (Integer n : scatter(s -> s.archiveOlderThan(age))) archived += n;
+        return archived;
+    }
+
+    @Override
+    public void close() {
+        gather.shutdown();
+        for (OrderRepository s : shards) s.close();
+    }
+
+    // Calls every shard, the others on pool threads and the first on this one, and returns the answers in shard order
+    private <T> List<T> scatter(Function<OrderRepository, T> call) {
+        if (shards.size() == 1) return Collections.singletonList(call.apply(shards.get(0)));
+        List<Future<T>> pending = new ArrayList<>(shards.size() - 1);
+        for (int i = 1; i < shards.size(); i++) {
+            OrderRepository s = shards.get(i);
+            pending.add(gather.submit(() -> call.apply(s)));
+        }
+        List<T> result = new ArrayList<>(shards.size());
+        result.add(call.apply(shards.get(0)));
+        try {
+            for (Future<T> f : pending) result.add(f.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for shards", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IllegalStateException(cause);
+        }
+        return result;
+    }
+
+    // Live and archived orders of an unsharded file go to their student's shard as live orders;
+    // the caller's next archiveOlderThan moves the old ones back into the shards' archives
+    private void migrateFrom(String filename) {
+        boolean any = false;
+        for (String suffix : UNSHARDED_FILES) any |= new File(filename + suffix).exists();
+        if (!any) return;
+        InMemoryOrderRepository old = new InMemoryOrderRepository(filename);
+        try {
+            old.scan(null, null, this::save);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            old.close();
+        }
+    }
+
+    private static void retire(File f) {
+        if (!f.exists()) return;
+        File to = new File(f.getPath() + ".unsharded");
+        if (!f.renameTo(to)) throw new UncheckedIOException(new IOException("Could not rename " + f + " to " + to));
+    }
+
+    private static void checkLayout(File marker, int count) {
+        if (count < 1) throw new IllegalArgumentException("At least one shard is needed.");
+        try {
+            if (marker.exists()) {
+                int existing = Integer.parseInt(new String(Files.readAllBytes(marker.toPath()), StandardCharsets.UTF_8).trim());
+                if (existing != count) {
+                    throw new IllegalStateException("Orders are stored in " + existing + " shards, not " + count + " (" + marker + ").");
+                }
+            } else {
+                Files.write(marker.toPath(), (count + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
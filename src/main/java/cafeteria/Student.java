@@ -1,14 +1,12 @@
 package cafeteria;
 
-import java.util.*;
-
 public class Student {
     private final String name;
     private final String studentId;
     private final String passwordHash;
-    private int points;
-    private double discountWallet; // EGP
-    private final List<Order> orders = new ArrayList<>();
+    // volatile so balances can be read without taking the lock the mutators use
+    private volatile int points;
+    private volatile double discountWallet; // EGP
 
     public Student(String name, String studentId, String passwordHash) {
         this.name = name;
@@ -26,13 +24,12 @@ public class Student {
         return discountWallet;
     }
 
-    public void addPoints(int p) { this.points += p; }
-    public boolean deductPoints(int p) { if (points < p) return false; points -= p; return true; }
-    public void addDiscount(double egp) { this.discountWallet += egp; }
-    public double consumeDiscount(double total) {
+    public synchronized void addPoints(int p) { this.points += p; }
+    public synchronized boolean deductPoints(int p) { if (points < p) return false; points -= p; return true; }
+    public synchronized void addDiscount(double egp) { this.discountWallet += egp; }
+    public synchronized double consumeDiscount(double total) {
         double applied = Math.min(discountWallet, total);
         discountWallet -= applied;
         return applied;
     }
-    public List<Order> getOrders() { return orders; }
 }
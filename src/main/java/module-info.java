@@ -1,6 +1,8 @@
 module main {
     requires javafx.controls;
     requires javafx.fxml;
+    requires jdk.unsupported;
+    requires jdk.httpserver;
 
     opens cafeteria to javafx.fxml;
     exports  cafeteria;